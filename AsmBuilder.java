@@ -4,7 +4,9 @@ import org.bytedeco.llvm.LLVM.LLVMValueRef;
 
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import static org.bytedeco.llvm.global.LLVM.*;
 import static org.bytedeco.llvm.global.LLVM.LLVMGetValueName;
@@ -12,13 +14,49 @@ import static org.bytedeco.llvm.global.LLVM.LLVMGetValueName;
 public class AsmBuilder {
     private AsmHelper asmHelper;
 
+    // LLVM names no value has, such as constants'.
+    private static final int NO_NAME = -1;
+
     private LLVMModuleRef MODULE;
+    // IDs of the values seen so far, so each name is read and interned once.
+    private final ValueIds valueIds = new ValueIds();
+    private PhaseTimer timer = PhaseTimer.DISABLED;
+    private Map<String, String> prebuilt = Collections.emptyMap();
+    private final Map<String, String> functionAsm = new LinkedHashMap<>();
 
     AsmBuilder(LLVMModuleRef module) {
-        this.asmHelper = new AsmHelper(1024);
+        this(module, new AsmHelper(1024));
+    }
+
+    /*
+     *   Numbers value names with the IDs the front end gave the same names,
+     *   and adds its own after them.
+     */
+    AsmBuilder(LLVMModuleRef module, Interner symbols) {
+        this(module, new AsmHelper(1024, symbols));
+    }
+
+    private AsmBuilder(LLVMModuleRef module, AsmHelper asmHelper) {
+        this.asmHelper = asmHelper;
         this.MODULE = module;
     }
 
+    public void setTimer(PhaseTimer timer) {
+        this.timer = timer;
+    }
+
+    /*
+     *   Assembly of functions that are only declared in the module, keyed
+     *   by function name.
+     */
+    public void setPrebuilt(Map<String, String> prebuilt) {
+        this.prebuilt = prebuilt;
+    }
+
+    public Map<String, String> getFunctionAsm() {
+        return functionAsm;
+    }
+
     public void dumpBuffer() {
         System.out.println(asmHelper.getBuffer().toString());
     }
@@ -27,13 +65,16 @@ public class AsmBuilder {
             writer.write(asmHelper.getBuffer().toString());
         } catch (IOException ignored) {}
     }
+    public String getOutput() {
+        return asmHelper.getBuffer().toString();
+    }
 
     void build() {
         for (LLVMValueRef globalVar = LLVMGetFirstGlobal(MODULE);
              globalVar != null; globalVar = LLVMGetNextGlobal(globalVar) ) {
             String name = LLVMGetValueName(globalVar).getString();
-            int val = (int) LLVMConstIntGetZExtValue(LLVMGetInitializer(globalVar));
-            asmHelper.defineGlobal(name, val);
+            int val = immediate(LLVMGetInitializer(globalVar));
+            asmHelper.defineGlobal(asmHelper.intern(name));
             asmHelper.buildSeg("data");
             asmHelper.buildLabel(name);
             asmHelper.buildSeg("word", val);
@@ -42,72 +83,199 @@ public class AsmBuilder {
         asmHelper.buildSeg("text");
         asmHelper.buildSeg("globl", "main");
 
+        // Functions share nothing but the globals, so each one is built with
+        // its own allocator state and buffer, then stitched back in order.
+        List<FunctionTask> tasks = new ArrayList<>();
         for ( LLVMValueRef function = LLVMGetFirstFunction(MODULE);
               function != null; function = LLVMGetNextFunction(function) ) {
-            asmHelper.buildLabel(LLVMGetValueName(function).getString());
-            asmHelper.buildPrologue();
-
-            for ( LLVMBasicBlockRef block = LLVMGetFirstBasicBlock(function);
-                 block != null; block = LLVMGetNextBasicBlock(block) ) {
-                asmHelper.buildLabel(LLVMGetBasicBlockName(block).getString());
-
-                for ( int round = 1; round <= 2; round++ ) {
-                    int instruction_line = 0;
-                    if ( round == 2 ) {
-                        asmHelper.allocVars();
-                    }
-                    for ( LLVMValueRef inst = LLVMGetFirstInstruction(block);
-                          inst != null; inst = LLVMGetNextInstruction(inst) ) {
-                        int opcode = LLVMGetInstructionOpcode(inst);
-                        ArrayList<LLVMValueRef> params = new ArrayList<>();
-                        for ( int i = 0; i < LLVMGetNumOperands(inst); i++ ) {
-                            params.add(LLVMGetOperand(inst, i));
-                        }
-                        String lVal = LLVMGetValueName(inst).getString();
-                        switch ( round ) {
-                            case 1:
-                                getLifespan(opcode, params, lVal, instruction_line);
-                                break;
-                            case 2:
-                                genInst(opcode, params, lVal, instruction_line);
-                                break;
-                            default:
-                                break;
-                        }
-                        instruction_line++;
-                    }
+            tasks.add(new FunctionTask(function, asmHelper.forFunction()));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        for ( FunctionTask task : tasks ) {
+            StringBuffer asm = task.join();
+            functionAsm.put(LLVMGetValueName(task.function).getString(), asm.toString());
+            asmHelper.getBuffer().append(asm);
+        }
+    }
+
+    private void buildFunction(LLVMValueRef function) {
+        asmHelper.buildLabel(LLVMGetValueName(function).getString());
+        asmHelper.buildPrologue();
+
+        for ( LLVMBasicBlockRef block = LLVMGetFirstBasicBlock(function);
+             block != null; block = LLVMGetNextBasicBlock(block) ) {
+            asmHelper.buildLabel(LLVMGetBasicBlockName(block).getString());
+
+            // Round 1: lifespans. Operands and their names are read from LLVM
+            // here, once, and kept for round 2.
+            long[] lifetime = timer.start();
+            List<Instruction> instructions = new ArrayList<>();
+            int instruction_line = 0;
+            for ( LLVMValueRef inst = LLVMGetFirstInstruction(block);
+                  inst != null; inst = LLVMGetNextInstruction(inst) ) {
+                Instruction instruction = new Instruction(inst);
+                getLifespan(instruction.opcode, instruction.params, instruction.ids, instruction.lVal, instruction_line);
+                instructions.add(instruction);
+                instruction_line++;
+            }
+            timer.stop(PhaseTimer.LIFETIME, lifetime);
+
+            long[] regalloc = timer.start();
+            asmHelper.allocVars();
+            timer.stop(PhaseTimer.REGALLOC, regalloc);
+
+            // Round 2: instruction selection.
+            long[] isel = timer.start();
+            instruction_line = 0;
+            for ( Instruction instruction : instructions ) {
+                genInst(instruction.opcode, instruction.params, instruction.ids, instruction.lVal, instruction_line);
+                instruction_line++;
+            }
+            timer.stop(PhaseTimer.ISEL, isel);
+        }
+
+        asmHelper.buildEpilogue();
+        asmHelper.printLifespan();
+    }
+
+    private class Instruction {
+        final int opcode;
+        final LLVMValueRef[] params;
+        final int[] ids;
+        final int lVal;
+
+        Instruction(LLVMValueRef inst) {
+            this.opcode = LLVMGetInstructionOpcode(inst);
+            this.params = new LLVMValueRef[LLVMGetNumOperands(inst)];
+            this.ids = new int[params.length];
+            for ( int i = 0; i < params.length; i++ ) {
+                params[i] = LLVMGetOperand(inst, i);
+                ids[i] = id(params[i]);
+            }
+            this.lVal = id(inst);
+        }
+    }
+
+    private int id(LLVMValueRef value) {
+        long address = value.address();
+        int id = valueIds.get(address);
+        if ( id == ValueIds.UNSEEN ) {
+            String name = LLVMGetValueName(value).getString();
+            id = name.isEmpty() ? NO_NAME : asmHelper.intern(name);
+            valueIds.put(address, id);
+        }
+        return id;
+    }
+
+    /*
+     *   Value IDs by the address of the LLVM value, in open addressing: a
+     *   value is a new Java object every time LLVM hands it out, but its
+     *   address stays the same. No value lives at address 0.
+     */
+    private static final class ValueIds {
+        static final int UNSEEN = Integer.MIN_VALUE;
+
+        private long[] addresses = new long[256];
+        private int[] ids = new int[256];
+        private int size = 0;
+
+        int get(long address) {
+            int mask = addresses.length - 1;
+            for ( int i = slot(address, mask); addresses[i] != 0; i = (i + 1) & mask ) {
+                if ( addresses[i] == address ) {
+                    return ids[i];
                 }
+            }
+            return UNSEEN;
+        }
 
+        void put(long address, int id) {
+            if ( 2 * (size + 1) > addresses.length ) {
+                grow();
+            }
+            int mask = addresses.length - 1;
+            int i = slot(address, mask);
+            while ( addresses[i] != 0 && addresses[i] != address ) {
+                i = (i + 1) & mask;
             }
+            if ( addresses[i] == 0 ) {
+                size++;
+            }
+            addresses[i] = address;
+            ids[i] = id;
+        }
 
-            asmHelper.buildEpilogue();
+        private void grow() {
+            long[] oldAddresses = addresses;
+            int[] oldIds = ids;
+            addresses = new long[oldAddresses.length * 2];
+            ids = new int[oldIds.length * 2];
+            size = 0;
+            for ( int i = 0; i < oldAddresses.length; i++ ) {
+                if ( oldAddresses[i] != 0 ) {
+                    put(oldAddresses[i], oldIds[i]);
+                }
+            }
         }
 
-        asmHelper.printLifespan();
+        private static int slot(long address, int mask) {
+            long h = address * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & mask;
+        }
+    }
+
+    // The value of an operand without a name. Undef and poison, which a
+    // constant division by zero folds to, have none and are taken as 0.
+    private static int immediate(LLVMValueRef constant) {
+        return (LLVMIsUndef(constant) != 0) ? 0 : (int) LLVMConstIntGetZExtValue(constant);
+    }
+
+    private class FunctionTask extends RecursiveTask<StringBuffer> {
+        private static final long serialVersionUID = 1L;
+
+        private final LLVMValueRef function;
+        private final AsmHelper helper;
+
+        FunctionTask(LLVMValueRef function, AsmHelper helper) {
+            this.function = function;
+            this.helper = helper;
+        }
+
+        @Override
+        protected StringBuffer compute() {
+            String cached = prebuilt.get(LLVMGetValueName(function).getString());
+            if ( cached != null ) {
+                return new StringBuffer(cached);
+            }
+            AsmBuilder builder = new AsmBuilder(MODULE, helper);
+            builder.setTimer(timer);
+            builder.buildFunction(function);
+            return helper.getBuffer();
+        }
     }
 
-    void getLifespan(int opcode, ArrayList<LLVMValueRef> params, String lVal, int line) {
-        if ( !lVal.isEmpty() ) {
+    void getLifespan(int opcode, LLVMValueRef[] params, int[] ids, int lVal, int line) {
+        if ( lVal != NO_NAME ) {
             asmHelper.appear(opcode, 0, lVal, line, "def");
         }
-        for ( int i = 0; i < params.size(); i++ ) {
-            String var = LLVMGetValueName(params.get(i)).getString();
-            if ( LLVMIsAGlobalVariable(params.get(i)) != null ) {
+        for ( int i = 0; i < params.length; i++ ) {
+            int var = ids[i];
+            if ( LLVMIsAGlobalVariable(params[i]) != null ) {
                 continue;
             }
-            if ( !var.isEmpty() ) {
+            if ( var != NO_NAME ) {
                 asmHelper.appear(opcode, i, var, line, "use");
             }
         }
     }
 
-    void genInst(int opcode, ArrayList<LLVMValueRef> params, String lVal, int line) {
+    void genInst(int opcode, LLVMValueRef[] params, int[] ids, int lVal, int line) {
 //         check spilling
 //        System.out.println("[L" + line + "]");
         AsmInterval varToSpill = asmHelper.getVarSpilled(line);
         if ( varToSpill != null ) {
 //            System.err.println("SPILLING");
-            asmHelper.pushStack(varToSpill.getVariable());
+            asmHelper.pushStack(varToSpill.getId());
             asmHelper.buildMV("t0", varToSpill.getRegBeforeSpill());
             asmHelper.buildSW("t0", asmHelper.getStackPointer(), "sp");
         }
@@ -116,10 +284,10 @@ public class AsmBuilder {
         switch ( opcode ) {
             case 1:
                 // ret
-                String retVar = LLVMGetValueName(params.get(0)).getString();
+                int retVar = ids[0];
                 AsmInterval retVarLifespan = asmHelper.getVarLifespan(retVar);
-                if ( retVar.isEmpty() ) {
-                    asmHelper.buildLI("a0", (int) LLVMConstIntGetZExtValue(params.get(0)));
+                if ( retVar == NO_NAME ) {
+                    asmHelper.buildLI("a0", immediate(params[0]));
                 }
                 else {
                     if ( line < retVarLifespan.getSpilled() ) {
@@ -132,14 +300,14 @@ public class AsmBuilder {
                 break;
             case 8:
                 // add
-                String add1 = LLVMGetValueName(params.get(0)).getString();
-                String add2 = LLVMGetValueName(params.get(1)).getString();
+                int add1 = ids[0];
+                int add2 = ids[1];
                 AsmInterval add1Lifespan = asmHelper.getVarLifespan(add1);
                 AsmInterval add2Lifespan = asmHelper.getVarLifespan(add2);
                 AsmInterval addResultLifespan = asmHelper.getVarLifespan(lVal);
 
-                if ( add1.isEmpty() ) {
-                    asmHelper.buildLI("t0", (int) LLVMConstIntGetZExtValue(params.get(0)));
+                if ( add1 == NO_NAME ) {
+                    asmHelper.buildLI("t0", immediate(params[0]));
                 }
                 else {
                     if ( line < add1Lifespan.getSpilled() ) {
@@ -149,8 +317,8 @@ public class AsmBuilder {
                         asmHelper.buildLW("t0", asmHelper.resolveStack(add1), "sp");
                     }
                 }
-                if ( add2.isEmpty() ) {
-                    asmHelper.buildLI("t1", (int) LLVMConstIntGetZExtValue(params.get(1)));
+                if ( add2 == NO_NAME ) {
+                    asmHelper.buildLI("t1", immediate(params[1]));
                 }
                 else {
                     if ( line < add2Lifespan.getSpilled() ) {
@@ -172,14 +340,14 @@ public class AsmBuilder {
 
             case 10:
                 // sub
-                String sub1 = LLVMGetValueName(params.get(0)).getString();
-                String sub2 = LLVMGetValueName(params.get(1)).getString();
+                int sub1 = ids[0];
+                int sub2 = ids[1];
                 AsmInterval sub1Lifespan = asmHelper.getVarLifespan(sub1);
                 AsmInterval sub2Lifespan = asmHelper.getVarLifespan(sub2);
                 AsmInterval subResultLifespan = asmHelper.getVarLifespan(lVal);
 
-                if ( sub1.isEmpty() ) {
-                    asmHelper.buildLI("t0", (int) LLVMConstIntGetZExtValue(params.get(0)));
+                if ( sub1 == NO_NAME ) {
+                    asmHelper.buildLI("t0", immediate(params[0]));
                 }
                 else {
                     if ( line < sub1Lifespan.getSpilled() ) {
@@ -189,8 +357,8 @@ public class AsmBuilder {
                         asmHelper.buildLW("t0", asmHelper.resolveStack(sub1), "sp");
                     }
                 }
-                if ( sub2.isEmpty() ) {
-                    asmHelper.buildLI("t1", (int) LLVMConstIntGetZExtValue(params.get(1)));
+                if ( sub2 == NO_NAME ) {
+                    asmHelper.buildLI("t1", immediate(params[1]));
                 }
                 else {
                     if ( line < sub2Lifespan.getSpilled() ) {
@@ -212,14 +380,14 @@ public class AsmBuilder {
 
             case 12:
                 // mul
-                String mul1 = LLVMGetValueName(params.get(0)).getString();
-                String mul2 = LLVMGetValueName(params.get(1)).getString();
+                int mul1 = ids[0];
+                int mul2 = ids[1];
                 AsmInterval mul1Lifespan = asmHelper.getVarLifespan(mul1);
                 AsmInterval mul2Lifespan = asmHelper.getVarLifespan(mul2);
                 AsmInterval mulResultLifespan = asmHelper.getVarLifespan(lVal);
 
-                if ( mul1.isEmpty() ) {
-                    asmHelper.buildLI("t0", (int) LLVMConstIntGetZExtValue(params.get(0)));
+                if ( mul1 == NO_NAME ) {
+                    asmHelper.buildLI("t0", immediate(params[0]));
                 }
                 else {
                     if ( line < mul1Lifespan.getSpilled() ) {
@@ -229,8 +397,8 @@ public class AsmBuilder {
                         asmHelper.buildLW("t0", asmHelper.resolveStack(mul1), "sp");
                     }
                 }
-                if ( mul2.isEmpty() ) {
-                    asmHelper.buildLI("t1", (int) LLVMConstIntGetZExtValue(params.get(1)));
+                if ( mul2 == NO_NAME ) {
+                    asmHelper.buildLI("t1", immediate(params[1]));
                 }
                 else {
                     if ( line < mul2Lifespan.getSpilled() ) {
@@ -252,14 +420,14 @@ public class AsmBuilder {
 
             case 15:
                 // div
-                String div1 = LLVMGetValueName(params.get(0)).getString();
-                String div2 = LLVMGetValueName(params.get(1)).getString();
+                int div1 = ids[0];
+                int div2 = ids[1];
                 AsmInterval div1Lifespan = asmHelper.getVarLifespan(div1);
                 AsmInterval div2Lifespan = asmHelper.getVarLifespan(div2);
                 AsmInterval divResultLifespan = asmHelper.getVarLifespan(lVal);
 
-                if ( div1.isEmpty() ) {
-                    asmHelper.buildLI("t0", (int) LLVMConstIntGetZExtValue(params.get(0)));
+                if ( div1 == NO_NAME ) {
+                    asmHelper.buildLI("t0", immediate(params[0]));
                 }
                 else {
                     if ( line < div1Lifespan.getSpilled() ) {
@@ -269,8 +437,8 @@ public class AsmBuilder {
                         asmHelper.buildLW("t0", asmHelper.resolveStack(div1), "sp");
                     }
                 }
-                if ( div2.isEmpty() ) {
-                    asmHelper.buildLI("t1", (int) LLVMConstIntGetZExtValue(params.get(1)));
+                if ( div2 == NO_NAME ) {
+                    asmHelper.buildLI("t1", immediate(params[1]));
                 }
                 else {
                     if ( line < div2Lifespan.getSpilled() ) {
@@ -292,14 +460,14 @@ public class AsmBuilder {
 
             case 18:
                 // rem
-                String rem1 = LLVMGetValueName(params.get(0)).getString();
-                String rem2 = LLVMGetValueName(params.get(1)).getString();
+                int rem1 = ids[0];
+                int rem2 = ids[1];
                 AsmInterval rem1Lifespan = asmHelper.getVarLifespan(rem1);
                 AsmInterval rem2Lifespan = asmHelper.getVarLifespan(rem2);
                 AsmInterval remResultLifespan = asmHelper.getVarLifespan(lVal);
 
-                if ( rem1.isEmpty() ) {
-                    asmHelper.buildLI("t0", (int) LLVMConstIntGetZExtValue(params.get(0)));
+                if ( rem1 == NO_NAME ) {
+                    asmHelper.buildLI("t0", immediate(params[0]));
                 }
                 else {
                     if ( line < rem1Lifespan.getSpilled() ) {
@@ -309,8 +477,8 @@ public class AsmBuilder {
                         asmHelper.buildLW("t0", asmHelper.resolveStack(rem1), "sp");
                     }
                 }
-                if ( rem2.isEmpty() ) {
-                    asmHelper.buildLI("t1", (int) LLVMConstIntGetZExtValue(params.get(1)));
+                if ( rem2 == NO_NAME ) {
+                    asmHelper.buildLI("t1", immediate(params[1]));
                 }
                 else {
                     if ( line < rem2Lifespan.getSpilled() ) {
@@ -338,12 +506,12 @@ public class AsmBuilder {
             case 27:
                 // load
                 // is global var
-                String loadVar = LLVMGetValueName(params.get(0)).getString();
+                int loadVar = ids[0];
                 AsmInterval loadVarLifespan = asmHelper.getVarLifespan(loadVar);
                 AsmInterval lValLifespan = asmHelper.getVarLifespan(lVal);
                 if ( asmHelper.isGlobal(loadVar) ) {
 //                    System.out.println(loadVar + " is global");
-                    asmHelper.buildLA("t0", loadVar);
+                    asmHelper.buildLA("t0", asmHelper.nameOf(loadVar));
                     asmHelper.buildLW("t0", 0, "t0");
                     if ( line < lValLifespan.getSpilled() ) {
                         asmHelper.buildMV(lValLifespan.getRegBeforeSpill(), "t0");
@@ -371,8 +539,8 @@ public class AsmBuilder {
                 break;
             case 28:
                 // store
-                String storeSrc = LLVMGetValueName(params.get(0)).getString();
-                String storeDest = LLVMGetValueName(params.get(1)).getString();
+                int storeSrc = ids[0];
+                int storeDest = ids[1];
                 AsmInterval storeSrcLifespan = asmHelper.getVarLifespan(storeSrc);
                 AsmInterval storeDestLifespan = asmHelper.getVarLifespan(storeDest);
 
@@ -383,12 +551,12 @@ public class AsmBuilder {
 //                }
 
 
-                int val = (int) LLVMConstIntGetZExtValue(params.get(0));
-                boolean isConstant = storeSrc.isEmpty();
+                boolean isConstant = storeSrc == NO_NAME;
+                int val = isConstant ? immediate(params[0]) : 0;
                 if ( asmHelper.isGlobal(storeDest) ) {
                     if ( isConstant ) {
                         asmHelper.buildLI("t0", val);
-                        asmHelper.buildLA("t1", storeDest);
+                        asmHelper.buildLA("t1", asmHelper.nameOf(storeDest));
                         asmHelper.buildSW("t0", 0, "t1");
                     }
                     else {
@@ -398,7 +566,7 @@ public class AsmBuilder {
                         else {
                             asmHelper.buildLW("t0", asmHelper.resolveStack(storeSrc), "sp");
                         }
-                        asmHelper.buildLA("t1", storeDest);
+                        asmHelper.buildLA("t1", asmHelper.nameOf(storeDest));
                         asmHelper.buildSW("t0", 0, "t1");
                     }
 
@@ -1,39 +1,80 @@
 import java.util.*;
 
+/*
+    Values are named by Interner IDs of their LLVM names, see intern().
+ */
 public class AsmHelper {
     private final int STACK_SIZE;
     private int STACK_POINTER;
 
-    private final HashSet<String> SCOPED = new HashSet<>();
-    private final HashMap<String, Integer> GLOBAL = new HashMap<>();
-    private final HashMap<String, Integer> STACK = new HashMap<>();
-    private final HashMap<String, AsmInterval> LIFESPAN = new HashMap<>();
+    private final Interner SYMBOLS;
+    private final BitSet SCOPED = new BitSet();
+    private final BitSet GLOBAL = new BitSet();
+    private final BitSet IN_STACK = new BitSet();
+    private int[] STACK = new int[64];
+    private AsmInterval[] LIFESPAN_BY_ID = new AsmInterval[64];
+    // In order of first appearance. Only iterated: the order breaks ties
+    // between intervals in allocRegs and getVarSpilled.
+    private final List<AsmInterval> LIFESPAN = new ArrayList<>();
     private final List<AsmRegister> REGS = new ArrayList<>();
     private final StringBuffer BUFFER = new StringBuffer();
 
 
     AsmHelper(int stack_pointer) {
+        this(stack_pointer, new Interner());
+    }
+
+    AsmHelper(int stack_pointer, Interner symbols) {
         this.STACK_SIZE = stack_pointer;
         this.STACK_POINTER = this.STACK_SIZE;
+        this.SYMBOLS = symbols;
+    }
+
+    /*
+        A fresh helper for one function: own stack, lifespans, registers
+        and buffer, but the globals defined so far. Its names are numbered
+        after the ones known here, which must not change any more.
+     */
+    public AsmHelper forFunction() {
+        AsmHelper helper = new AsmHelper(this.STACK_SIZE, new Interner(this.SYMBOLS));
+        helper.GLOBAL.or(this.GLOBAL);
+        return helper;
+    }
+
+    /*
+        NAME TOOLS
+     */
+    public int intern(String name) {
+        return this.SYMBOLS.intern(name);
+    }
+    public String nameOf(int name) {
+        return this.SYMBOLS.name(name);
+    }
+
+    private static int[] ensure(int[] table, int index) {
+        return (index < table.length) ? table : Arrays.copyOf(table, Math.max(index + 1, table.length * 2));
     }
 
     /*
         STACK TOOLS
      */
-    public void pushStack(String name) {
+    public void pushStack(int name) {
         this.STACK_POINTER -= 4;
-        this.STACK.put(name, this.STACK_POINTER);
+        this.STACK = ensure(this.STACK, name);
+        this.STACK[name] = this.STACK_POINTER;
+        this.IN_STACK.set(name);
 //        System.out.println("[Stack] " + this.STACK.toString());
     }
-    public int resolveStack(String name) {
+    public int resolveStack(int name) {
 //        System.out.println("[Stack] " + this.STACK.toString());
-        if ( !this.STACK.containsKey(name) ) {
+        if ( !this.IN_STACK.get(name) ) {
             System.err.println("Resolve failed!");
+            return 0;
         }
-        return this.STACK.getOrDefault(name, 0);
+        return this.STACK[name];
     }
-    public boolean isInStack(String name) {
-        return this.STACK.containsKey(name);
+    public boolean isInStack(int name) {
+        return this.IN_STACK.get(name);
     }
     public int getStackPointer() {
         return this.STACK_POINTER;
@@ -42,32 +83,40 @@ public class AsmHelper {
     /*
         GLOBAL TOOLS
      */
-    public void defineGlobal(String name, int val) {
-        this.GLOBAL.put(name, val);
+    public void defineGlobal(int name) {
+        this.GLOBAL.set(name);
     }
-    public void defineScoped(String name) {
-        this.SCOPED.add(name);
+    public void defineScoped(int name) {
+        if ( name >= 0 ) {
+            this.SCOPED.set(name);
+        }
     }
-    public boolean isGlobal(String name) {
+    public boolean isGlobal(int name) {
 //        System.out.println(name + ", Scoped >>> " + this.SCOPED);
-        return !this.SCOPED.contains(name) && this.GLOBAL.containsKey(name);
+        return name >= 0 && !this.SCOPED.get(name) && this.GLOBAL.get(name);
     }
-    public void shadowGlobal(String name) {
-        this.GLOBAL.remove(name);
+    public void shadowGlobal(int name) {
+        if ( name >= 0 ) {
+            this.GLOBAL.clear(name);
+        }
     }
 
     /*
         LIFESPAN TOOLS
      */
-    public void appear(int opcode, int no, String var, int line, String type) {
+    public void appear(int opcode, int no, int var, int line, String type) {
 //        System.err.println(String.format("%s %s %s %s %s", opcode, no, var, line, type));
-        if ( !this.LIFESPAN.containsKey(var) ) {
-            AsmInterval lifespan = new AsmInterval(var, line, line);
-            this.LIFESPAN.put(var, lifespan);
+        if ( getVarLifespan(var) == null ) {
+            AsmInterval lifespan = new AsmInterval(var, nameOf(var), line, line);
+            if ( var >= this.LIFESPAN_BY_ID.length ) {
+                this.LIFESPAN_BY_ID = Arrays.copyOf(this.LIFESPAN_BY_ID, Math.max(var + 1, this.LIFESPAN_BY_ID.length * 2));
+            }
+            this.LIFESPAN_BY_ID[var] = lifespan;
+            this.LIFESPAN.add(lifespan);
         }
         else {
 //            if ( !(Objects.equals(type, "def") || (opcode == 28 && no == 1)) ) {
-                AsmInterval lifespan = this.LIFESPAN.get(var);
+                AsmInterval lifespan = getVarLifespan(var);
                 lifespan.setEnd(line);
 //            }
         }
@@ -85,7 +134,7 @@ public class AsmHelper {
         for ( String reg : Regs ) {
             this.REGS.add(new AsmRegister(reg));
         }
-        allocRegs(new ArrayList<>(this.LIFESPAN.values()), this.REGS);
+        allocRegs(new ArrayList<>(this.LIFESPAN), this.REGS);
     }
 
     public void allocRegs(List<AsmInterval> intervals, List<AsmRegister> registers) {
@@ -148,7 +197,7 @@ public class AsmHelper {
 
     public AsmInterval getVarSpilled(int line) {
 //        System.out.println("---------- " + line);
-        for ( AsmInterval interval : this.LIFESPAN.values() ) {
+        for ( AsmInterval interval : this.LIFESPAN ) {
             if ( interval.getSpilled() == line ) {
                 return interval;
             }
@@ -156,11 +205,11 @@ public class AsmHelper {
         // No var is spilled at this line.
         return null;
     }
-    public AsmInterval getVarLifespan(String var) {
-        return this.LIFESPAN.getOrDefault(var, null);
+    public AsmInterval getVarLifespan(int var) {
+        return (var >= 0 && var < this.LIFESPAN_BY_ID.length) ? this.LIFESPAN_BY_ID[var] : null;
     }
     public void printLifespan() {
-//        System.err.println(this.LIFESPAN.values());
+//        System.err.println(this.LIFESPAN);
     }
 
     /*
@@ -1,11 +1,13 @@
 public class AsmInterval {
+    private final int id;
     private String variable;
     private String regBeforeSpill;
     private int start;
     private int end;
     private int spilled;
 
-    AsmInterval(String variable, int start, int end) {
+    AsmInterval(int id, String variable, int start, int end) {
+        this.id = id;
         this.variable = variable;
         this.start = start;
         this.end = end;
@@ -27,6 +29,11 @@ public class AsmInterval {
         return this.start;
     }
 
+    // The Interner ID of the variable, see AsmHelper.
+    public int getId() {
+        return this.id;
+    }
+
     public void setVariable(String variable) {
         this.variable = variable;
     }
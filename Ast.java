@@ -0,0 +1,244 @@
+import java.util.List;
+
+/*
+ *   Immutable syntax tree that IR generation walks instead of the ANTLR
+ *   parse tree, built by AstBuilder. Parentheses are gone, integer literals
+ *   are already parsed and every identifier has its Interner ID next to
+ *   its name, which is the same String instance for every occurrence.
+ *   Every occurrence also has a ref of its own, counting up from 0 over
+ *   all the items one builder made, to index tables such as Binder's.
+ *   Conditions are ordinary expressions whose operators may also be
+ *   comparisons and && / ||.
+ *
+ *   Each node carries its Kind, so a walk dispatches with one switch
+ *   instead of testing context classes one after another.
+ */
+public final class Ast {
+    private Ast() {}
+
+    public enum Kind {
+        FUNC, DECL,
+        BLOCK, ASSIGN, EXP_STMT, IF, WHILE, BREAK, CONTINUE, RETURN,
+        NUM, VAR, CALL, UNARY, BINARY
+    }
+
+    public enum Op {
+        MINUS, NOT,
+        MUL, DIV, MOD, ADD, SUB,
+        LT, GT, LE, GE, EQ, NE, AND, OR
+    }
+
+    public static class Node {
+        public final Kind kind;
+
+        Node(Kind kind) {
+            this.kind = kind;
+        }
+    }
+
+    public static final Node BREAK = new Node(Kind.BREAK);
+    public static final Node CONTINUE = new Node(Kind.CONTINUE);
+
+    /*
+        ITEMS
+     */
+    public static final class Program {
+        public final List<Node> items;
+        // Every ref in items is below this.
+        public final int refs;
+
+        Program(List<Node> items, int refs) {
+            this.items = List.copyOf(items);
+            this.refs = refs;
+        }
+    }
+
+    // Parameters are Defs without an initializer.
+    public static final class Func extends Node {
+        public final String name;
+        public final int id;
+        public final int ref;
+        public final boolean returnsInt;
+        public final List<Def> params;
+        public final Block body;
+
+        Func(String name, int id, int ref, boolean returnsInt, List<Def> params, Block body) {
+            super(Kind.FUNC);
+            this.name = name;
+            this.id = id;
+            this.ref = ref;
+            this.returnsInt = returnsInt;
+            this.params = List.copyOf(params);
+            this.body = body;
+        }
+    }
+
+    public static final class Decl extends Node {
+        public final boolean isConst;
+        public final List<Def> defs;
+
+        Decl(boolean isConst, List<Def> defs) {
+            super(Kind.DECL);
+            this.isConst = isConst;
+            this.defs = List.copyOf(defs);
+        }
+    }
+
+    // One name of a declaration; init is null when there is no initializer.
+    public static final class Def {
+        public final String name;
+        public final int id;
+        public final int ref;
+        public final Expr init;
+
+        Def(String name, int id, int ref, Expr init) {
+            this.name = name;
+            this.id = id;
+            this.ref = ref;
+            this.init = init;
+        }
+    }
+
+    /*
+        STATEMENTS
+     */
+    public static final class Block extends Node {
+        public final List<Node> items;
+
+        Block(List<Node> items) {
+            super(Kind.BLOCK);
+            this.items = List.copyOf(items);
+        }
+    }
+
+    // line is the source line, for diagnostics.
+    public static final class Assign extends Node {
+        public final Var target;
+        public final Expr value;
+        public final int line;
+
+        Assign(Var target, Expr value, int line) {
+            super(Kind.ASSIGN);
+            this.target = target;
+            this.value = value;
+            this.line = line;
+        }
+    }
+
+    // exp is null for an empty statement.
+    public static final class ExpStmt extends Node {
+        public final Expr exp;
+
+        ExpStmt(Expr exp) {
+            super(Kind.EXP_STMT);
+            this.exp = exp;
+        }
+    }
+
+    // otherwise is null without an else branch.
+    public static final class If extends Node {
+        public final Expr cond;
+        public final Node then;
+        public final Node otherwise;
+
+        If(Expr cond, Node then, Node otherwise) {
+            super(Kind.IF);
+            this.cond = cond;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+    }
+
+    public static final class While extends Node {
+        public final Expr cond;
+        public final Node body;
+
+        While(Expr cond, Node body) {
+            super(Kind.WHILE);
+            this.cond = cond;
+            this.body = body;
+        }
+    }
+
+    // value is null for a bare return.
+    public static final class Return extends Node {
+        public final Expr value;
+
+        Return(Expr value) {
+            super(Kind.RETURN);
+            this.value = value;
+        }
+    }
+
+    /*
+        EXPRESSIONS
+     */
+    public abstract static class Expr extends Node {
+        Expr(Kind kind) {
+            super(kind);
+        }
+    }
+
+    public static final class Num extends Expr {
+        public final int value;
+
+        Num(int value) {
+            super(Kind.NUM);
+            this.value = value;
+        }
+    }
+
+    public static final class Var extends Expr {
+        public final String name;
+        public final int id;
+        public final int ref;
+        public final List<Expr> indexes;
+
+        Var(String name, int id, int ref, List<Expr> indexes) {
+            super(Kind.VAR);
+            this.name = name;
+            this.id = id;
+            this.ref = ref;
+            this.indexes = List.copyOf(indexes);
+        }
+    }
+
+    public static final class Call extends Expr {
+        public final String name;
+        public final int id;
+        public final int ref;
+        public final List<Expr> args;
+
+        Call(String name, int id, int ref, List<Expr> args) {
+            super(Kind.CALL);
+            this.name = name;
+            this.id = id;
+            this.ref = ref;
+            this.args = List.copyOf(args);
+        }
+    }
+
+    public static final class Unary extends Expr {
+        public final Op op;
+        public final Expr operand;
+
+        Unary(Op op, Expr operand) {
+            super(Kind.UNARY);
+            this.op = op;
+            this.operand = operand;
+        }
+    }
+
+    public static final class Binary extends Expr {
+        public final Op op;
+        public final Expr left;
+        public final Expr right;
+
+        Binary(Op op, Expr left, Expr right) {
+            super(Kind.BINARY);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
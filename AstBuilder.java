@@ -0,0 +1,245 @@
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ *   Lowers a parse tree to an Ast in one pass. Expressions and conditions
+ *   go through the generated visitor, one method per labeled alternative;
+ *   everything above them follows the grammar rule by rule. Use one
+ *   builder per compile, so that all its items number names alike.
+ */
+public class AstBuilder extends SysYParserBaseVisitor<Ast.Expr> {
+    private final Interner symbols;
+    private int refs = 0;
+
+    public AstBuilder() {
+        this(new Interner());
+    }
+
+    public AstBuilder(Interner symbols) {
+        this.symbols = symbols;
+    }
+
+    public Interner getSymbols() {
+        return symbols;
+    }
+
+    public Ast.Program program(SysYParser.ProgramContext ctx) {
+        List<Ast.Node> items = new ArrayList<>();
+        for ( ParseTree child : ctx.compUnit().children ) {
+            if ( child instanceof SysYParser.FuncDefContext || child instanceof SysYParser.DeclContext ) {
+                items.add(item((ParserRuleContext) child));
+            }
+        }
+        return new Ast.Program(items, refs);
+    }
+
+    // A top-level funcDef or decl.
+    public Ast.Node item(ParserRuleContext ctx) {
+        return (ctx instanceof SysYParser.FuncDefContext)
+                ? funcDef((SysYParser.FuncDefContext) ctx)
+                : decl((SysYParser.DeclContext) ctx);
+    }
+
+    private int id(TerminalNode ident) {
+        return symbols.intern(ident.getText());
+    }
+
+    public static int parseDecimal(String number) {
+        return (number.startsWith("0x") || number.startsWith("0X"))
+                ? Integer.parseInt(number.substring(2), 16)
+                : ((number.startsWith("0") && number.length() != 1)
+                    ? Integer.parseInt(number.substring(1), 8)
+                    : Integer.parseInt(number, 10)
+                    );
+    }
+
+    /*
+        DECLARATIONS
+     */
+    private Ast.Func funcDef(SysYParser.FuncDefContext ctx) {
+        List<Ast.Def> params = new ArrayList<>();
+        if ( ctx.funcFParams() != null ) {
+            for ( SysYParser.FuncFParamContext param : ctx.funcFParams().funcFParam() ) {
+                if ( param.L_BRACKT().size() > 0 ) {
+                    throw unsupported("Array parameter " + param.IDENT().getText(), param);
+                }
+                int id = id(param.IDENT());
+                params.add(new Ast.Def(symbols.name(id), id, refs++, null));
+            }
+        }
+        int id = id(ctx.funcName().IDENT());
+        return new Ast.Func(symbols.name(id), id, refs++, ctx.funcType().INT() != null,
+                params, block(ctx.block()));
+    }
+
+    private Ast.Decl decl(SysYParser.DeclContext ctx) {
+        List<Ast.Def> defs = new ArrayList<>();
+        if ( ctx.constDecl() != null ) {
+            for ( SysYParser.ConstDefContext def : ctx.constDecl().constDef() ) {
+                if ( def.constExp().size() > 0 || def.constInitVal().constExp() == null ) {
+                    throw unsupported("Array " + def.IDENT().getText(), def);
+                }
+                int id = id(def.IDENT());
+                defs.add(new Ast.Def(symbols.name(id), id, refs++, visit(def.constInitVal().constExp().exp())));
+            }
+            return new Ast.Decl(true, defs);
+        }
+        for ( SysYParser.VarDefContext def : ctx.varDecl().varDef() ) {
+            if ( def.constExp().size() > 0 || (def.initVal() != null && def.initVal().exp() == null) ) {
+                throw unsupported("Array " + def.IDENT().getText(), def);
+            }
+            Ast.Expr init = null;
+            if ( def.initVal() != null ) {
+                init = visit(def.initVal().exp());
+            }
+            int id = id(def.IDENT());
+            defs.add(new Ast.Def(symbols.name(id), id, refs++, init));
+        }
+        return new Ast.Decl(false, defs);
+    }
+
+    private static CompileError unsupported(String what, ParserRuleContext ctx) {
+        return new CompileError(ctx.getStart().getLine(), what + " is not supported.");
+    }
+
+    /*
+        STATEMENTS
+     */
+    private Ast.Block block(SysYParser.BlockContext ctx) {
+        List<Ast.Node> items = new ArrayList<>();
+        for ( SysYParser.BlockItemContext item : ctx.blockItem() ) {
+            items.add((item.decl() != null) ? decl(item.decl()) : stmt(item.stmt()));
+        }
+        return new Ast.Block(items);
+    }
+
+    private Ast.Node stmt(SysYParser.StmtContext ctx) {
+        if ( ctx.assignment() != null ) {
+            SysYParser.AssignmentContext assignment = ctx.assignment();
+            return new Ast.Assign(lVal(assignment.lVal()), visit(assignment.exp()), assignment.getStart().getLine());
+        }
+        else if ( ctx.possibleExp() != null ) {
+            SysYParser.ExpContext exp = ctx.possibleExp().exp();
+            return new Ast.ExpStmt((exp != null) ? visit(exp) : null);
+        }
+        else if ( ctx.blockStmt() != null ) {
+            return block(ctx.blockStmt().block());
+        }
+        else if ( ctx.ifStmt() != null ) {
+            SysYParser.IfStmtContext ifStmt = ctx.ifStmt();
+            return new Ast.If(visit(ifStmt.cond()), stmt(ifStmt.stmt(0)),
+                    (ifStmt.ELSE() != null) ? stmt(ifStmt.stmt(1)) : null);
+        }
+        else if ( ctx.whileStmt() != null ) {
+            return new Ast.While(visit(ctx.whileStmt().cond()), stmt(ctx.whileStmt().stmt()));
+        }
+        else if ( ctx.breakStmt() != null ) {
+            return Ast.BREAK;
+        }
+        else if ( ctx.continueStmt() != null ) {
+            return Ast.CONTINUE;
+        }
+        SysYParser.ExpContext value = ctx.returnStmt().exp();
+        return new Ast.Return((value != null) ? visit(value) : null);
+    }
+
+    private Ast.Var lVal(SysYParser.LValContext ctx) {
+        if ( !ctx.exp().isEmpty() ) {
+            throw unsupported("Array element " + ctx.IDENT().getText() + "[...]", ctx);
+        }
+        int id = id(ctx.IDENT());
+        return new Ast.Var(symbols.name(id), id, refs++, List.of());
+    }
+
+    /*
+        EXPRESSIONS
+     */
+    @Override
+    public Ast.Expr visitParenExp(SysYParser.ParenExpContext ctx) {
+        return visit(ctx.exp());
+    }
+
+    @Override
+    public Ast.Expr visitLValExp(SysYParser.LValExpContext ctx) {
+        return lVal(ctx.lVal());
+    }
+
+    @Override
+    public Ast.Expr visitNumExp(SysYParser.NumExpContext ctx) {
+        return new Ast.Num(parseDecimal(ctx.number().INTEGR_CONST().getText()));
+    }
+
+    @Override
+    public Ast.Expr visitFuncCallExp(SysYParser.FuncCallExpContext ctx) {
+        List<Ast.Expr> args = new ArrayList<>();
+        if ( ctx.funcRParams() != null ) {
+            for ( SysYParser.ParamContext param : ctx.funcRParams().param() ) {
+                args.add(visit(param.exp()));
+            }
+        }
+        int id = id(ctx.funcName().IDENT());
+        return new Ast.Call(symbols.name(id), id, refs++, args);
+    }
+
+    @Override
+    public Ast.Expr visitUnaryExp(SysYParser.UnaryExpContext ctx) {
+        Ast.Expr operand = visit(ctx.exp());
+        if ( ctx.unaryOp().PLUS() != null ) {
+            return operand;
+        }
+        return new Ast.Unary((ctx.unaryOp().MINUS() != null) ? Ast.Op.MINUS : Ast.Op.NOT, operand);
+    }
+
+    @Override
+    public Ast.Expr visitMulExp(SysYParser.MulExpContext ctx) {
+        Ast.Op op = (ctx.MUL() != null) ? Ast.Op.MUL
+                : ((ctx.DIV() != null) ? Ast.Op.DIV
+                : Ast.Op.MOD);
+        return new Ast.Binary(op, visit(ctx.exp(0)), visit(ctx.exp(1)));
+    }
+
+    @Override
+    public Ast.Expr visitAddExp(SysYParser.AddExpContext ctx) {
+        return new Ast.Binary((ctx.PLUS() != null) ? Ast.Op.ADD : Ast.Op.SUB,
+                visit(ctx.exp(0)), visit(ctx.exp(1)));
+    }
+
+    @Override
+    public Ast.Expr visitCondExp(SysYParser.CondExpContext ctx) {
+        return visit(ctx.exp());
+    }
+
+    @Override
+    public Ast.Expr visitParenCond(SysYParser.ParenCondContext ctx) {
+        return visit(ctx.cond());
+    }
+
+    @Override
+    public Ast.Expr visitCompareExp(SysYParser.CompareExpContext ctx) {
+        Ast.Op op = (ctx.LT() != null) ? Ast.Op.LT
+                : ((ctx.GT() != null) ? Ast.Op.GT
+                : ((ctx.LE() != null) ? Ast.Op.LE
+                : Ast.Op.GE));
+        return new Ast.Binary(op, visit(ctx.cond(0)), visit(ctx.cond(1)));
+    }
+
+    @Override
+    public Ast.Expr visitRelationExp(SysYParser.RelationExpContext ctx) {
+        return new Ast.Binary((ctx.NEQ() != null) ? Ast.Op.NE : Ast.Op.EQ,
+                visit(ctx.cond(0)), visit(ctx.cond(1)));
+    }
+
+    @Override
+    public Ast.Expr visitAndExp(SysYParser.AndExpContext ctx) {
+        return new Ast.Binary(Ast.Op.AND, visit(ctx.cond(0)), visit(ctx.cond(1)));
+    }
+
+    @Override
+    public Ast.Expr visitOrExp(SysYParser.OrExpContext ctx) {
+        return new Ast.Binary(Ast.Op.OR, visit(ctx.cond(0)), visit(ctx.cond(1)));
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ *   Compiles many sources in one process. The target is either a directory,
+ *   searched recursively for .sy files, or a manifest listing one source per
+ *   line (blank lines and lines starting with '#' are skipped, relative paths
+ *   are resolved against the manifest's directory).
+ *   For every source foo.sy, foo.s and foo.ll are written next to it.
+ */
+public class BatchCompiler {
+    private int ok = 0;
+    private int rejected = 0;
+    private int crashed = 0;
+    // An Error a stage died of, thrown by run() once the pipeline has drained.
+    private volatile Error fatal = null;
+
+    public static List<Path> collectSources(Path target) throws IOException {
+        if ( Files.isDirectory(target) ) {
+            try ( Stream<Path> walk = Files.walk(target) ) {
+                return walk.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".sy"))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+        List<Path> sources = new ArrayList<>();
+        Path base = target.toAbsolutePath().getParent();
+        for ( String line : Files.readAllLines(target) ) {
+            line = line.trim();
+            if ( line.isEmpty() || line.startsWith("#") ) {
+                continue;
+            }
+            sources.add(base.resolve(line));
+        }
+        return sources;
+    }
+
+    public static Path siblingWithExtension(Path source, String extension) {
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String stem = (dot > 0) ? name.substring(0, dot) : name;
+        return source.resolveSibling(stem + extension);
+    }
+
+    private static final int QUEUE_CAPACITY = 4;
+
+    /*
+     *   One source on its way through the pipeline. Each stage hands it to
+     *   the next through a queue, so only one thread touches it at a time.
+     */
+    private static class Job {
+        final Path source;
+        final MyCompiler compiler = new MyCompiler();
+        final ByteArrayOutputStream lexerErrors = new ByteArrayOutputStream();
+        boolean rejected = false;
+        Throwable failure = null;
+        long nanos = 0;
+
+        Job(Path source) {
+            this.source = source;
+        }
+    }
+
+    private static final Job END = new Job(null);
+
+    private interface Step {
+        void apply(Job job) throws IOException;
+    }
+
+    /*
+     *   Returns 0 if every source was either compiled or rejected with
+     *   syntax errors or unsupported constructs, 1 if the compiler itself failed on any of them.
+     *
+     *   Parsing, IR generation and code generation run on their own threads,
+     *   joined by bounded queues: while one source is in code generation the
+     *   next is in IR generation and the one after that is being parsed.
+     *   Results are still reported in source order. Jobs are only created
+     *   as the parse stage takes them, so a long manifest never has more
+     *   compilers alive than the queues hold.
+     *
+     *   An Error such as OutOfMemoryError is not blamed on a source: it stops
+     *   the batch and is thrown from here.
+     */
+    public int run(List<Path> sources) {
+        MyCompiler.initLLVM();
+        BlockingQueue<Job> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Job> parsed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Job> lowered = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Job> done = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        feed(sources, pending);
+        stage("sysy-parse", pending, parsed, job -> {
+            job.compiler.setLexerErrors(new PrintStream(job.lexerErrors, true, "UTF-8"));
+            job.rejected = !job.compiler.parse(MappedCharStream.open(job.source));
+        });
+        stage("sysy-irgen", parsed, lowered, job -> {
+            if ( !job.compiler.genIR() ) {
+                job.rejected = true;
+                return;
+            }
+            job.compiler.writeIR(siblingWithExtension(job.source, ".ll").toString());
+        });
+        stage("sysy-codegen", lowered, done, job -> {
+            job.compiler.genAsm();
+            job.compiler.writeAsm(siblingWithExtension(job.source, ".s").toString());
+        });
+
+        try {
+            for ( Job job = done.take(); job != END; job = done.take() ) {
+                report(job);
+                job.compiler.dispose();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if ( fatal != null ) {
+            throw fatal;
+        }
+        System.out.printf("%d file(s): %d ok, %d rejected, %d failed%n",
+                sources.size(), ok, rejected, crashed);
+        return crashed == 0 ? 0 : 1;
+    }
+
+    /*
+     *   Puts a new job for every source into out, then END. The bounded
+     *   queue keeps this only a few sources ahead of the parse stage.
+     */
+    private void feed(List<Path> sources, BlockingQueue<Job> out) {
+        Thread thread = new Thread(() -> {
+            try {
+                for ( Path source : sources ) {
+                    out.put(new Job(source));
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (Error e) {
+                fatal = e;
+            }
+            finally {
+                putEnd(out);
+            }
+        }, "sysy-feed");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /*
+     *   Runs step on every job from in and passes it on to out, skipping
+     *   jobs that an earlier stage already rejected or failed. END is passed
+     *   on however the loop ends, so a dying stage cannot hang the batch.
+     */
+    private void stage(String name, BlockingQueue<Job> in, BlockingQueue<Job> out, Step step) {
+        Thread thread = new Thread(() -> {
+            try {
+                for ( Job job = in.take(); job != END; job = in.take() ) {
+                    if ( !job.rejected && job.failure == null ) {
+                        long start = System.nanoTime();
+                        try {
+                            step.apply(job);
+                        }
+                        catch (Exception | StackOverflowError e) {
+                            // A crash, or nesting too deep for the stack, is that source's failure.
+                            job.failure = e;
+                        }
+                        job.nanos += System.nanoTime() - start;
+                    }
+                    out.put(job);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (Error e) {
+                fatal = e;
+            }
+            finally {
+                // The next stage, and run() after the last one, wait for END.
+                putEnd(out);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void putEnd(BlockingQueue<Job> out) {
+        boolean interrupted = Thread.interrupted();
+        while ( true ) {
+            try {
+                out.put(END);
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if ( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void report(Job job) {
+        try {
+            System.err.print(job.lexerErrors.toString("UTF-8"));
+        }
+        catch (UnsupportedEncodingException ignored) {}
+        if ( job.failure != null ) {
+            crashed++;
+            report("FAILED", job);
+            System.out.println("    " + job.failure);
+        }
+        else if ( job.rejected ) {
+            rejected++;
+            report("REJECTED", job);
+            for ( String e : job.compiler.getErrors() ) {
+                System.out.println("    " + e);
+            }
+        }
+        else {
+            ok++;
+            report("OK", job);
+        }
+    }
+
+    // The time is what the stages spent on this source, without queueing.
+    private void report(String status, Job job) {
+        System.out.printf("%-8s %s (%d ms)%n", status, job.source, job.nanos / 1_000_000);
+    }
+}
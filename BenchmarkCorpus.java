@@ -0,0 +1,198 @@
+import org.bytedeco.llvm.LLVM.*;
+import static org.bytedeco.llvm.global.LLVM.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ *   Inputs for the per-phase benchmarks in jmh/: a generated corpus of
+ *   small, medium and huge SysY programs, and the register allocator's
+ *   lifespan events recorded from a module so that they can be replayed
+ *   without LLVM.
+ */
+public class BenchmarkCorpus {
+    private BenchmarkCorpus() {}
+
+    // One of "small", "medium", "huge" or "expressions".
+    public static String named(String name) {
+        switch ( name ) {
+            case "small":
+                return generate(1, 20, 1);
+            case "medium":
+                return generate(20, 50, 2);
+            case "huge":
+                return generate(100, 300, 3);
+            case "expressions":
+                return generateExpressions(4, 100, 4);
+            default:
+                throw new IllegalArgumentException("no corpus " + name);
+        }
+    }
+
+    /*
+        CORPUS
+     */
+    public static String generate(int functions, int statements, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for ( int g = 0; g < 8; g++ ) {
+            sb.append("int g").append(g).append(" = ").append(g).append(";\n");
+        }
+        for ( int f = 0; f < functions; f++ ) {
+            sb.append("int ").append(f == functions - 1 ? "main" : "f" + f).append("() {\n");
+            sb.append("    int a = 1;\n    int b = 2;\n    int c = 3;\n");
+            for ( int s = 0; s < statements; s++ ) {
+                switch ( random.nextInt(4) ) {
+                    case 0:
+                        sb.append("    a = ").append(expression(random, 3)).append(";\n");
+                        break;
+                    case 1:
+                        sb.append("    if (").append(expression(random, 2)).append(" < ")
+                                .append(expression(random, 2)).append(" && b != c) {\n")
+                                .append("        b = ").append(expression(random, 2)).append(";\n")
+                                .append("    } else {\n")
+                                .append("        c = ").append(expression(random, 2)).append(";\n")
+                                .append("    }\n");
+                        break;
+                    case 2:
+                        sb.append("    while (a < ").append(1 + random.nextInt(99)).append(") {\n")
+                                .append("        a = a + 1;\n")
+                                .append("    }\n");
+                        break;
+                    default:
+                        sb.append("    {\n        int d = ").append(expression(random, 2)).append(";\n")
+                                .append("        b = d;\n    }\n");
+                        break;
+                }
+            }
+            sb.append("    return a + b;\n}\n");
+        }
+        return sb.toString();
+    }
+
+    /*
+     *   Few statements, each a deep expression or a chain of comparisons
+     *   joined by && and ||, for the parser's exp and cond rules.
+     */
+    public static String generateExpressions(int functions, int statements, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for ( int g = 0; g < 8; g++ ) {
+            sb.append("int g").append(g).append(" = ").append(g).append(";\n");
+        }
+        for ( int f = 0; f < functions; f++ ) {
+            sb.append("int ").append(f == functions - 1 ? "main" : "f" + f).append("() {\n");
+            sb.append("    int a = 1;\n    int b = 2;\n    int c = 3;\n");
+            for ( int s = 0; s < statements; s++ ) {
+                if ( random.nextBoolean() ) {
+                    sb.append("    a = ").append(expression(random, 6)).append(";\n");
+                    continue;
+                }
+                sb.append("    if (");
+                for ( int c = 0; c < 4; c++ ) {
+                    sb.append(c == 0 ? "" : (random.nextBoolean() ? " && " : " || "))
+                            .append(expression(random, 3)).append(" ")
+                            .append(new String[] { "<", ">", "<=", ">=", "==", "!=" }[random.nextInt(6)]).append(" ")
+                            .append(expression(random, 3));
+                }
+                sb.append(") {\n        b = b + 1;\n    }\n");
+            }
+            sb.append("    return a + b;\n}\n");
+        }
+        return sb.toString();
+    }
+
+    private static String expression(Random random, int depth) {
+        if ( depth == 0 || random.nextInt(3) == 0 ) {
+            switch ( random.nextInt(3) ) {
+                case 0:
+                    return String.valueOf(1 + random.nextInt(99));
+                case 1:
+                    return "g" + random.nextInt(8);
+                default:
+                    return String.valueOf((char) ('a' + random.nextInt(3)));
+            }
+        }
+        char op = "+-*/%".charAt(random.nextInt(5));
+        // A constant divisor that folds to zero would leave poison in the IR.
+        String right = (op == '/' || op == '%')
+                ? String.valueOf(1 + random.nextInt(99))
+                : expression(random, depth - 1);
+        String exp = expression(random, depth - 1) + " " + op + " " + right;
+        return random.nextBoolean() ? "(" + exp + ")" : exp;
+    }
+
+    /*
+        LIFESPANS
+     */
+    static class Appearance {
+        final int opcode, no, line;
+        final String var, type;
+
+        Appearance(int opcode, int no, String var, int line, String type) {
+            this.opcode = opcode;
+            this.no = no;
+            this.var = var;
+            this.line = line;
+            this.type = type;
+        }
+    }
+
+    /*
+     *   The lifespan events AsmBuilder feeds its helpers, by function and
+     *   block.
+     */
+    public static List<List<List<Appearance>>> collectLifespans(LLVMModuleRef module) {
+        List<List<List<Appearance>>> functions = new ArrayList<>();
+        for ( LLVMValueRef function = LLVMGetFirstFunction(module);
+              function != null; function = LLVMGetNextFunction(function) ) {
+            List<List<Appearance>> blocks = new ArrayList<>();
+            for ( LLVMBasicBlockRef block = LLVMGetFirstBasicBlock(function);
+                  block != null; block = LLVMGetNextBasicBlock(block) ) {
+                List<Appearance> events = new ArrayList<>();
+                int line = 0;
+                for ( LLVMValueRef inst = LLVMGetFirstInstruction(block);
+                      inst != null; inst = LLVMGetNextInstruction(inst) ) {
+                    int opcode = LLVMGetInstructionOpcode(inst);
+                    String lVal = LLVMGetValueName(inst).getString();
+                    if ( !lVal.isEmpty() ) {
+                        events.add(new Appearance(opcode, 0, lVal, line, "def"));
+                    }
+                    for ( int i = 0; i < LLVMGetNumOperands(inst); i++ ) {
+                        LLVMValueRef operand = LLVMGetOperand(inst, i);
+                        String var = LLVMGetValueName(operand).getString();
+                        if ( LLVMIsAGlobalVariable(operand) == null && !var.isEmpty() ) {
+                            events.add(new Appearance(opcode, i, var, line, "use"));
+                        }
+                    }
+                    line++;
+                }
+                blocks.add(events);
+            }
+            functions.add(blocks);
+        }
+        return functions;
+    }
+
+    /*
+     *   Replays the events into fresh helpers and allocates registers after
+     *   each block, as AsmBuilder does. Allocation cannot be repeated on its
+     *   own: a helper's lifespans grow block by block and every allocVars()
+     *   adds registers.
+     */
+    public static int allocVars(List<List<List<Appearance>>> functions) {
+        int intervals = 0;
+        for ( List<List<Appearance>> blocks : functions ) {
+            AsmHelper helper = new AsmHelper(1024);
+            for ( List<Appearance> events : blocks ) {
+                for ( Appearance e : events ) {
+                    helper.appear(e.opcode, e.no, helper.intern(e.var), e.line, e.type);
+                }
+                helper.allocVars();
+                intervals += events.size();
+            }
+        }
+        return intervals;
+    }
+}
@@ -0,0 +1,263 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ *   Resolves every identifier occurrence of a program once, before any IR
+ *   is built, to the slot of the definition it names: the occurrence's ref
+ *   (see Ast) indexes the slot. A function's parameters and locals get
+ *   slots 0, 1, ... in order of definition; globals and functions are
+ *   numbered in the same way across the program, and their slots are
+ *   stored as global(n) so that they read as negative.
+ *
+ *   Scoping is MyLLVMVisitor's: a definition is visible from the next one
+ *   on, to the end of its block, and a global only to the items after it.
+ *   Occurrences that name nothing are left UNBOUND.
+ *
+ *   Function bodies only read what the program's globals were when the
+ *   function was defined, so bind() binds them in parallel once every
+ *   global is numbered.
+ */
+public class Binder {
+    public static final int UNBOUND = Integer.MIN_VALUE;
+
+    private int[] slots = new int[1024];
+
+    // Global definitions in order: each one's name, and the definition of
+    // the same name it hides.
+    private int[] globalNames = new int[64];
+    private int[] hiddenGlobals = new int[64];
+    private int globalCount = 0;
+    private int[] latestGlobal = new int[64];
+
+    public Binder() {
+        Arrays.fill(slots, UNBOUND);
+        Arrays.fill(latestGlobal, SymbolTable.NONE);
+    }
+
+    public static int global(int n) {
+        return -1 - n;
+    }
+
+    public static boolean isGlobal(int slot) {
+        return slot < 0 && slot != UNBOUND;
+    }
+
+    public static int globalIndex(int slot) {
+        return -1 - slot;
+    }
+
+    // The slot an occurrence was bound to, or UNBOUND.
+    public int slot(int ref) {
+        return (ref < slots.length) ? slots[ref] : UNBOUND;
+    }
+
+    public void bind(Ast.Program program) {
+        ensure(program.refs);
+        List<FunctionTask> tasks = new ArrayList<>();
+        for ( Ast.Node item : program.items ) {
+            if ( item.kind == Ast.Kind.FUNC ) {
+                defineGlobal((Ast.Func) item);
+                tasks.add(new FunctionTask((Ast.Func) item, globalCount));
+            }
+            else {
+                bindGlobals((Ast.Decl) item);
+            }
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /*
+     *   One top-level funcDef or decl, after those before it. The item's refs
+     *   may be past any program bound so far.
+     */
+    public void bindItem(Ast.Node item) {
+        if ( item.kind == Ast.Kind.FUNC ) {
+            defineGlobal((Ast.Func) item);
+            new FunctionTask((Ast.Func) item, globalCount).invoke();
+        }
+        else {
+            bindGlobals((Ast.Decl) item);
+        }
+    }
+
+    /*
+        GLOBALS
+     */
+    private void bindGlobals(Ast.Decl decl) {
+        for ( Ast.Def def : decl.defs ) {
+            if ( def.init != null ) {
+                new FunctionTask(null, globalCount).bindExp(def.init);
+            }
+            set(def.ref, defineGlobal(def.id));
+        }
+    }
+
+    private void defineGlobal(Ast.Func func) {
+        set(func.ref, defineGlobal(func.id));
+    }
+
+    private int defineGlobal(int name) {
+        if ( globalCount == globalNames.length ) {
+            globalNames = Arrays.copyOf(globalNames, globalCount * 2);
+            hiddenGlobals = Arrays.copyOf(hiddenGlobals, globalCount * 2);
+        }
+        if ( name >= latestGlobal.length ) {
+            int length = latestGlobal.length;
+            latestGlobal = Arrays.copyOf(latestGlobal, Math.max(name + 1, length * 2));
+            Arrays.fill(latestGlobal, length, latestGlobal.length, SymbolTable.NONE);
+        }
+        globalNames[globalCount] = name;
+        hiddenGlobals[globalCount] = latestGlobal[name];
+        latestGlobal[name] = globalCount;
+        return global(globalCount++);
+    }
+
+    // The latest of the first visible global definitions named name.
+    private int resolveGlobal(int name, int visible) {
+        int n = (name < latestGlobal.length) ? latestGlobal[name] : SymbolTable.NONE;
+        while ( n >= visible ) {
+            n = hiddenGlobals[n];
+        }
+        return (n == SymbolTable.NONE) ? UNBOUND : global(n);
+    }
+
+    // Only grows when binding item by item; bind() makes room beforehand.
+    private void set(int ref, int slot) {
+        ensure(ref + 1);
+        slots[ref] = slot;
+    }
+
+    private void ensure(int refs) {
+        if ( refs > slots.length ) {
+            int length = slots.length;
+            slots = Arrays.copyOf(slots, Math.max(refs, length * 2));
+            Arrays.fill(slots, length, slots.length, UNBOUND);
+        }
+    }
+
+    /*
+        FUNCTIONS
+     */
+    private class FunctionTask extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final Ast.Func func;
+        private final int visibleGlobals;
+        private final SymbolTable locals = new SymbolTable();
+        private int localCount = 0;
+
+        FunctionTask(Ast.Func func, int visibleGlobals) {
+            this.func = func;
+            this.visibleGlobals = visibleGlobals;
+        }
+
+        @Override
+        protected Void compute() {
+            locals.enter();
+            for ( Ast.Def param : func.params ) {
+                define(param);
+            }
+            bindBlock(func.body);
+            locals.leave();
+            return null;
+        }
+
+        private void define(Ast.Def def) {
+            set(def.ref, localCount);
+            locals.define(def.id, localCount++);
+        }
+
+        private int resolve(int name) {
+            int slot = locals.resolve(name);
+            return (slot != SymbolTable.NONE) ? slot : resolveGlobal(name, visibleGlobals);
+        }
+
+        private void bindBlock(Ast.Block block) {
+            locals.enter();
+            for ( Ast.Node item : block.items ) {
+                if ( item.kind == Ast.Kind.DECL ) {
+                    for ( Ast.Def def : ((Ast.Decl) item).defs ) {
+                        if ( def.init != null ) {
+                            bindExp(def.init);
+                        }
+                        define(def);
+                    }
+                }
+                else {
+                    bindStmt(item);
+                }
+            }
+            locals.leave();
+        }
+
+        private void bindStmt(Ast.Node stmt) {
+            switch ( stmt.kind ) {
+                case BLOCK:
+                    bindBlock((Ast.Block) stmt);
+                    break;
+                case ASSIGN:
+                    bindExp(((Ast.Assign) stmt).target);
+                    bindExp(((Ast.Assign) stmt).value);
+                    break;
+                case EXP_STMT:
+                    if ( ((Ast.ExpStmt) stmt).exp != null ) {
+                        bindExp(((Ast.ExpStmt) stmt).exp);
+                    }
+                    break;
+                case IF: {
+                    Ast.If ifStmt = (Ast.If) stmt;
+                    bindExp(ifStmt.cond);
+                    bindStmt(ifStmt.then);
+                    if ( ifStmt.otherwise != null ) {
+                        bindStmt(ifStmt.otherwise);
+                    }
+                    break;
+                }
+                case WHILE:
+                    bindExp(((Ast.While) stmt).cond);
+                    bindStmt(((Ast.While) stmt).body);
+                    break;
+                case RETURN:
+                    if ( ((Ast.Return) stmt).value != null ) {
+                        bindExp(((Ast.Return) stmt).value);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void bindExp(Ast.Expr exp) {
+            switch ( exp.kind ) {
+                case VAR: {
+                    Ast.Var var = (Ast.Var) exp;
+                    for ( Ast.Expr index : var.indexes ) {
+                        bindExp(index);
+                    }
+                    set(var.ref, resolve(var.id));
+                    break;
+                }
+                case CALL: {
+                    Ast.Call call = (Ast.Call) exp;
+                    for ( Ast.Expr arg : call.args ) {
+                        bindExp(arg);
+                    }
+                    set(call.ref, resolve(call.id));
+                    break;
+                }
+                case UNARY:
+                    bindExp(((Ast.Unary) exp).operand);
+                    break;
+                case BINARY:
+                    bindExp(((Ast.Binary) exp).left);
+                    bindExp(((Ast.Binary) exp).right);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
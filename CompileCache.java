@@ -0,0 +1,217 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/*
+ *   On-disk cache of finished compiles, keyed by the SHA-256 of the compiler
+ *   version, the output-affecting options and the source bytes. Only sources
+ *   that compiled are cached; rejected ones are compiled again so that the
+ *   diagnostics come from the real parser.
+ *
+ *   Several processes may share one directory. Entries are written to a
+ *   temporary file and renamed into place, so a reader sees either nothing
+ *   or a whole entry. A hit touches the entry, and after each store the
+ *   least recently used entries are deleted until the directory fits.
+ *
+ *   The same directory also keeps single functions, see MyCompiler.setCache.
+ *
+ *   Entry: int magic, then asm, IR and lexer messages as length-prefixed
+ *          UTF-8
+ */
+public class CompileCache {
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+    private static final int MAGIC = 0x53794301;
+    private static final String SUFFIX = ".entry";
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+
+    private final Path dir;
+    private final long maxBytes;
+
+    public static class Entry {
+        public final String asm;
+        public final String ir;
+        public final String lexerErrors;
+
+        Entry(String asm, String ir, String lexerErrors) {
+            this.asm = asm;
+            this.ir = ir;
+            this.lexerErrors = lexerErrors;
+        }
+    }
+
+    CompileCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static String key(byte[] source, String options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(MyCompiler.VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(options.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source);
+            StringBuilder sb = new StringBuilder();
+            for ( byte b : digest.digest() ) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     *   Returns null on a miss, or if the entry is unreadable (being evicted
+     *   by another process, truncated, or from another cache format).
+     */
+    public Entry lookup(String key) {
+        Path path = dir.resolve(key + SUFFIX);
+        try ( DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path))) ) {
+            if ( in.readInt() != MAGIC ) {
+                return null;
+            }
+            // Lengths are checked against what is left of the file, so a
+            // corrupt one is a miss rather than a huge allocation.
+            long left = Files.size(path) - Integer.BYTES;
+            String[] strings = new String[3];
+            for ( int i = 0; i < strings.length; i++ ) {
+                byte[] bytes = readBytes(in, left);
+                left -= Integer.BYTES + bytes.length;
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            Entry entry = new Entry(strings[0], strings[1], strings[2]);
+            touch(path);
+            return entry;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /*
+     *   Failing to store only costs the next compile a miss, so errors are
+     *   ignored.
+     */
+    public void store(String key, Entry entry) {
+        storeAll(Collections.singletonMap(key, entry));
+    }
+
+    /*
+     *   Stores many entries with a single eviction pass at the end.
+     */
+    public void storeAll(Map<String, Entry> entries) {
+        try {
+            Files.createDirectories(dir);
+            for ( Map.Entry<String, Entry> entry : entries.entrySet() ) {
+                write(entry.getKey(), entry.getValue());
+            }
+            evict();
+        }
+        catch (IOException ignored) {}
+    }
+
+    private void write(String key, Entry entry) throws IOException {
+        Path temp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))) ) {
+                out.writeInt(MAGIC);
+                writeString(out, entry.asm);
+                writeString(out, entry.ir);
+                writeString(out, entry.lexerErrors);
+            }
+            Path path = dir.resolve(key + SUFFIX);
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        }
+        finally {
+            if ( temp != null ) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /*
+     *   Deletes the least recently used entries until the total size fits.
+     *   Files may vanish under us when another process evicts at the same
+     *   time, which only means there is less to do.
+     */
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        List<long[]> stats = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        try ( Stream<Path> list = Files.list(dir) ) {
+            for ( Path path : (Iterable<Path>) list::iterator ) {
+                String name = path.getFileName().toString();
+                try {
+                    if ( name.endsWith(".tmp") ) {
+                        if ( now - Files.getLastModifiedTime(path).toMillis() > STALE_TEMP_MILLIS ) {
+                            Files.deleteIfExists(path);
+                        }
+                    }
+                    else if ( name.endsWith(SUFFIX) ) {
+                        long size = Files.size(path);
+                        entries.add(path);
+                        stats.add(new long[] { Files.getLastModifiedTime(path).toMillis(), size, entries.size() - 1 });
+                        total += size;
+                    }
+                }
+                catch (IOException ignored) {}
+            }
+        }
+        if ( total <= maxBytes ) {
+            return;
+        }
+        stats.sort((a, b) -> Long.compare(a[0], b[0]));
+        for ( long[] stat : stats ) {
+            if ( total <= maxBytes ) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(entries.get((int) stat[2]));
+            }
+            catch (IOException ignored) {}
+            total -= stat[1];
+        }
+    }
+
+    private static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (IOException ignored) {}
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // left: bytes from here to the end of the file.
+    private static byte[] readBytes(DataInputStream in, long left) throws IOException {
+        int length = in.readInt();
+        if ( length < 0 || length > left - Integer.BYTES ) {
+            throw new IOException("bad entry length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
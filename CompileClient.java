@@ -0,0 +1,98 @@
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/*
+ *   Thin front for CompileServer with the same contract as "Main [options]
+ *   <in> <out>": syntax errors go to stdout, lexer messages to stderr,
+ *   assembly to <out> and IR to --ir-out. Returns false if no daemon is
+ *   listening, so the caller can compile in-process instead.
+ */
+public class CompileClient {
+    private final int port;
+
+    CompileClient(int port) {
+        this.port = port;
+    }
+
+    public boolean compile(CompileOptions options) throws IOException {
+        byte[] text = Files.readAllBytes(Paths.get(options.getSource()));
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        }
+        catch (ConnectException e) {
+            return false;
+        }
+
+        try ( Socket connection = socket ) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            out.writeInt(CompileServer.MAGIC);
+            List<String> args = options.daemonArgs();
+            out.writeInt(args.size());
+            for ( String arg : args ) {
+                CompileServer.writeBytes(out, arg.getBytes(StandardCharsets.UTF_8));
+            }
+            CompileServer.writeBytes(out, text);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            int status = in.readInt();
+            byte[] stdout = CompileServer.readBytes(in);
+            byte[] stderr = CompileServer.readBytes(in);
+            byte[] asm = CompileServer.readBytes(in);
+            byte[] ir = CompileServer.readBytes(in);
+
+            System.err.write(stderr);
+            System.err.flush();
+            System.out.write(stdout);
+            System.out.flush();
+            if ( ir.length > 0 ) {
+                writeIR(options, ir);
+            }
+            switch ( status ) {
+                case CompileServer.STATUS_OK:
+                    writeQuietly(options.getOutput(), asm);
+                    break;
+                case CompileServer.STATUS_REJECTED:
+                    if ( options.isFailFast() ) {
+                        System.exit(1);
+                    }
+                    break;
+                case CompileServer.STATUS_FAILED:
+                case CompileServer.STATUS_UNSUPPORTED:
+                    System.exit(1);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private static void writeIR(CompileOptions options, byte[] ir) {
+        switch ( options.getIrFormat() ) {
+            case "ll":
+                writeQuietly(options.getIrOutput(), ir);
+                break;
+            case "bc":
+                MyCompiler.writeBitcode(new String(ir, StandardCharsets.UTF_8), options.getIrOutput());
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Main ignores unwritable output paths, and so does the client.
+    private static void writeQuietly(String path, byte[] bytes) {
+        try {
+            Files.write(Paths.get(path), bytes);
+        }
+        catch (IOException ignored) {}
+    }
+}
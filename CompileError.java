@@ -0,0 +1,20 @@
+/*
+ *   A construct that parses but that IR generation cannot lower, such as
+ *   arrays or an assignment to a const. MyCompiler.genIR() reports it with
+ *   the other errors as "Error at Line L: msg" instead of letting it crash
+ *   the compile.
+ */
+public class CompileError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public final int line;
+
+    CompileError(int line, String message) {
+        super(message);
+        this.line = line;
+    }
+
+    public String report() {
+        return "Error at Line " + line + ": " + getMessage();
+    }
+}
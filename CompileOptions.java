@@ -0,0 +1,232 @@
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ *   Command line of a single-file compile, see USAGE.
+ */
+public class CompileOptions {
+    public static final String USAGE =
+            "Usage: Main [options] <source> <output>\n"
+            + "  --time-phases[=file]    JSON timing report per stage, to stderr or file\n"
+            + "  --cache-dir=<dir>       reuse results of earlier compiles kept in <dir>\n"
+            + "  --cache-size=<MiB>      bound on the cache directory, default 256\n"
+            + "  --ir=none|ll|bc         IR output: none, text or bitcode, default ll\n"
+            + "  --ir-out=<file>         where the IR goes, default src/_ir.txt\n"
+            + "  --lexer=antlr|hand      generated SysYLexer or SysYScanner, default antlr\n"
+            + "  --stream                parse and lower one function or declaration at a time\n"
+            + "  --parallel-parse        parse large sources on all cores\n"
+            + "  --profile-parser[=file] JSON report of the parser's decisions, to stderr or file\n"
+            + "  --fail-fast             report only the first lexer or syntax error, exit status 1\n"
+            + "  --check                 type check before generating code, errors as in LAB 3\n";
+
+    private final List<String> files = new ArrayList<>();
+    private boolean timePhases = false;
+    private String timingReport = null;
+    private String cacheDir = null;
+    private long cacheBytes = CompileCache.DEFAULT_MAX_BYTES;
+    private String irFormat = "ll";
+    private String irOutput = "src/_ir.txt";
+    private boolean handLexer = false;
+    private boolean stream = false;
+    private boolean parallelParse = false;
+    private boolean profileParser = false;
+    private String parserProfile = null;
+    private boolean failFast = false;
+    private boolean check = false;
+
+    public static CompileOptions parse(String[] args) {
+        CompileOptions options = new CompileOptions();
+        for ( String arg : args ) {
+            options.apply(arg);
+        }
+        if ( options.files.size() != 2 ) {
+            throw new IllegalArgumentException("expected <source> <output>");
+        }
+        if ( options.stream && options.cacheDir != null ) {
+            // Function reuse fingerprints the whole token stream, which streaming never keeps.
+            throw new IllegalArgumentException("--stream can't be combined with --cache-dir");
+        }
+        if ( options.stream && options.parallelParse ) {
+            throw new IllegalArgumentException("--stream can't be combined with --parallel-parse");
+        }
+        if ( options.stream && options.failFast ) {
+            // Streaming lowers each item as soon as it parses, before later errors are found.
+            throw new IllegalArgumentException("--stream can't be combined with --fail-fast");
+        }
+        if ( options.stream && options.check ) {
+            // The checker needs the whole tree, streaming lowers items before the end is parsed.
+            throw new IllegalArgumentException("--stream can't be combined with --check");
+        }
+        return options;
+    }
+
+    /*
+     *   The options a daemon got from CompileClient, see daemonArgs().
+     */
+    public static CompileOptions forDaemon(List<String> args) {
+        CompileOptions options = new CompileOptions();
+        for ( String arg : args ) {
+            options.apply(arg);
+        }
+        if ( !options.files.isEmpty() || options.daemonArgs() == null ) {
+            throw new IllegalArgumentException("unexpected daemon options " + args);
+        }
+        return options;
+    }
+
+    private void apply(String arg) {
+        if ( arg.equals("--time-phases") ) {
+            this.timePhases = true;
+        }
+        else if ( arg.startsWith("--time-phases=") ) {
+            this.timePhases = true;
+            this.timingReport = arg.substring("--time-phases=".length());
+        }
+        else if ( arg.startsWith("--cache-dir=") ) {
+            this.cacheDir = arg.substring("--cache-dir=".length());
+        }
+        else if ( arg.startsWith("--cache-size=") ) {
+            try {
+                this.cacheBytes = Long.parseLong(arg.substring("--cache-size=".length())) << 20;
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad cache size " + arg);
+            }
+        }
+        else if ( arg.startsWith("--ir=") ) {
+            this.irFormat = arg.substring("--ir=".length());
+            if ( !this.irFormat.equals("none") && !this.irFormat.equals("ll") && !this.irFormat.equals("bc") ) {
+                throw new IllegalArgumentException("bad IR format " + this.irFormat);
+            }
+        }
+        else if ( arg.startsWith("--ir-out=") ) {
+            this.irOutput = arg.substring("--ir-out=".length());
+        }
+        else if ( arg.equals("--lexer=antlr") || arg.equals("--lexer=hand") ) {
+            this.handLexer = arg.equals("--lexer=hand");
+        }
+        else if ( arg.equals("--stream") ) {
+            this.stream = true;
+        }
+        else if ( arg.equals("--parallel-parse") ) {
+            this.parallelParse = true;
+        }
+        else if ( arg.equals("--fail-fast") ) {
+            this.failFast = true;
+        }
+        else if ( arg.equals("--check") ) {
+            this.check = true;
+        }
+        else if ( arg.equals("--profile-parser") ) {
+            this.profileParser = true;
+        }
+        else if ( arg.startsWith("--profile-parser=") ) {
+            this.profileParser = true;
+            this.parserProfile = arg.substring("--profile-parser=".length());
+        }
+        else if ( arg.startsWith("--") ) {
+            throw new IllegalArgumentException("unknown option " + arg);
+        }
+        else {
+            this.files.add(arg);
+        }
+    }
+
+    public String getSource() {
+        return files.get(0);
+    }
+
+    public String getOutput() {
+        return files.get(1);
+    }
+
+    public boolean isTimePhases() {
+        return timePhases;
+    }
+
+    public String getTimingReport() {
+        return timingReport;
+    }
+
+    public String getIrFormat() {
+        return irFormat;
+    }
+
+    public String getIrOutput() {
+        return irOutput;
+    }
+
+    public boolean isHandLexer() {
+        return handLexer;
+    }
+
+    public boolean isStream() {
+        return stream;
+    }
+
+    public boolean isParallelParse() {
+        return parallelParse;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public boolean isCheck() {
+        return check;
+    }
+
+    public boolean isProfileParser() {
+        return profileParser;
+    }
+
+    public String getParserProfile() {
+        return parserProfile;
+    }
+
+    public CompileCache newCache() {
+        return cacheDir == null ? null : new CompileCache(Paths.get(cacheDir), cacheBytes);
+    }
+
+    /*
+     *   The options that change what gets generated, as part of the cache
+     *   key. Timing, cache and IR output settings do not, entries always
+     *   keep the IR text. --check and --fail-fast are part of it too: a
+     *   program they reject may have been cached by a compile without them.
+     */
+    public String cacheKey() {
+        return (check ? "check" : "") + (failFast ? "\0fail-fast" : "");
+    }
+
+    /*
+     *   The options a compile daemon applies, as CompileClient sends them.
+     *   IR format and output are handled by the client. Null if an option
+     *   needs the compile to run in this process: timing and profiling
+     *   would measure the daemon, the cache and streaming read the source
+     *   themselves.
+     */
+    public List<String> daemonArgs() {
+        if ( timePhases || profileParser || cacheDir != null || stream ) {
+            return null;
+        }
+        List<String> args = new ArrayList<>();
+        if ( handLexer ) {
+            args.add("--lexer=hand");
+        }
+        if ( parallelParse ) {
+            args.add("--parallel-parse");
+        }
+        if ( failFast ) {
+            args.add("--fail-fast");
+        }
+        if ( check ) {
+            args.add("--check");
+        }
+        return args;
+    }
+
+    public PhaseTimer newTimer() {
+        return timePhases ? new PhaseTimer(true) : PhaseTimer.DISABLED;
+    }
+}
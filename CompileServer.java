@@ -0,0 +1,152 @@
+import org.antlr.v4.runtime.CharStreams;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ *   Long-running compiler: keeps the JVM, the parser's shared DFA cache and
+ *   the LLVM native targets warm between compiles.
+ *
+ *   Listens on the loopback interface only. Requests are handled one at a
+ *   time, since the LLVM global context is not thread-safe.
+ *
+ *   Request:  int magic, int count, count options as length-prefixed UTF-8
+ *             (see CompileOptions.daemonArgs), int length, byte[length] source
+ *   Response: int status, then stdout, stderr, asm and IR as length-prefixed
+ *             UTF-8 (asm is empty unless status is STATUS_OK, IR is empty if
+ *             the failure happened before IR generation finished)
+ */
+public class CompileServer {
+    public static final int DEFAULT_PORT = 47913;
+    public static final int MAGIC = 0x53795902;
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_REJECTED = 1;
+    public static final int STATUS_FAILED = 2;
+    public static final int STATUS_UNSUPPORTED = 3;
+    private static final int MAX_OPTIONS = 64;
+    private static final int MAX_SOURCE = 256 << 20;
+
+    private final int port;
+
+    CompileServer(int port) {
+        this.port = port;
+    }
+
+    public static int getPort() {
+        return Integer.getInteger("sysy.daemon.port", DEFAULT_PORT);
+    }
+
+    public void serve() throws IOException {
+        MyCompiler.initLLVM();
+        try ( ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress()) ) {
+            System.err.println("Compile daemon listening on " + server.getLocalSocketAddress());
+            while ( true ) {
+                try ( Socket socket = server.accept() ) {
+                    handle(socket);
+                }
+                catch (IOException e) {
+                    System.err.println("Request dropped: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if ( in.readInt() != MAGIC ) {
+            throw new IOException("bad request header");
+        }
+        int count = in.readInt();
+        if ( count < 0 || count > MAX_OPTIONS ) {
+            throw new IOException("bad option count " + count);
+        }
+        List<String> args = new ArrayList<>();
+        for ( int i = 0; i < count; i++ ) {
+            args.add(new String(readBytes(in), StandardCharsets.UTF_8));
+        }
+        CompileOptions options;
+        try {
+            options = CompileOptions.forDaemon(args);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        int length = in.readInt();
+        if ( length < 0 || length > MAX_SOURCE ) {
+            throw new IOException("bad source length " + length);
+        }
+        byte[] source = new byte[length];
+        in.readFully(source);
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        PrintStream stdoutStream = new PrintStream(stdout, true, "UTF-8");
+        PrintStream stderrStream = new PrintStream(stderr, true, "UTF-8");
+        String asm = "", ir = "";
+        int status;
+
+        MyCompiler compiler = new MyCompiler();
+        compiler.setLexerErrors(stderrStream);
+        compiler.setParallelParse(options.isParallelParse());
+        compiler.setFailFast(options.isFailFast());
+        try {
+            boolean parsed = options.isHandLexer()
+                    ? compiler.parse(source)
+                    : compiler.parse(CharStreams.fromString(new String(source, StandardCharsets.UTF_8)));
+            if ( !parsed || (options.isCheck() && !compiler.check()) ) {
+                for ( String e : compiler.getErrors() ) {
+                    stdoutStream.println(e);
+                }
+                status = STATUS_REJECTED;
+            }
+            else if ( !compiler.genIR() ) {
+                for ( String e : compiler.getErrors() ) {
+                    stdoutStream.println(e);
+                }
+                status = STATUS_UNSUPPORTED;
+            }
+            else {
+                ir = compiler.getIR();
+                compiler.genAsm();
+                asm = compiler.getAsm();
+                status = STATUS_OK;
+            }
+        }
+        catch (RuntimeException | StackOverflowError e) {
+            stderrStream.print("Exception in thread \"main\" ");
+            e.printStackTrace(stderrStream);
+            status = STATUS_FAILED;
+        }
+        finally {
+            compiler.dispose();
+        }
+
+        out.writeInt(status);
+        writeBytes(out, stdout.toByteArray());
+        writeBytes(out, stderr.toByteArray());
+        writeBytes(out, asm.getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, ir.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if ( length < 0 ) {
+            throw new IOException("bad response length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
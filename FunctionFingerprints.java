@@ -0,0 +1,127 @@
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.*;
+
+/*
+ *   Everything the code generated for one function depends on: its own
+ *   tokens, plus the declaration of every global and the header of every
+ *   other function it names, and whether those come before or after it.
+ *   Const values are folded into their uses, so the globals named in the
+ *   declarations of those globals count as named too, and so on.
+ *   Two compiles that agree on a function's fingerprint generate the same
+ *   IR and assembly for it.
+ */
+public class FunctionFingerprints {
+    private static class Declaration {
+        final int start;
+        final String text;
+        // Identifiers in the declaration.
+        final List<String> names;
+
+        Declaration(int start, String text, List<String> names) {
+            this.start = start;
+            this.text = text;
+            this.names = names;
+        }
+    }
+
+    /*
+     *   Function name to fingerprint, in source order. Returns null when a
+     *   name is defined twice, since the functions can't be told apart.
+     */
+    public static Map<String, String> of(SysYParser.ProgramContext program, TokenStream tokens) {
+        Map<String, List<Declaration>> globals = new HashMap<>();
+        Map<String, List<Declaration>> headers = new HashMap<>();
+        List<SysYParser.FuncDefContext> functions = new ArrayList<>();
+
+        for ( ParseTree child : program.compUnit().children ) {
+            if ( child instanceof SysYParser.FuncDefContext ) {
+                SysYParser.FuncDefContext funcDef = (SysYParser.FuncDefContext) child;
+                String header = text(tokens, funcDef.getStart().getTokenIndex(), funcDef.R_PAREN().getSymbol().getTokenIndex());
+                headers.computeIfAbsent(funcDef.funcName().getText(), k -> new ArrayList<>())
+                        .add(new Declaration(funcDef.getStart().getTokenIndex(), header, Collections.emptyList()));
+                functions.add(funcDef);
+            }
+            else if ( child instanceof SysYParser.DeclContext ) {
+                SysYParser.DeclContext decl = (SysYParser.DeclContext) child;
+                Declaration declaration = new Declaration(decl.getStart().getTokenIndex(), text(tokens, decl),
+                        new ArrayList<>(identifiers(tokens, decl.getStart().getTokenIndex(), decl.getStop().getTokenIndex())));
+                List<String> names = new ArrayList<>();
+                if ( decl.constDecl() != null ) {
+                    for ( SysYParser.ConstDefContext constDef : decl.constDecl().constDef() ) {
+                        names.add(constDef.IDENT().getText());
+                    }
+                }
+                else {
+                    for ( SysYParser.VarDefContext varDef : decl.varDecl().varDef() ) {
+                        names.add(varDef.IDENT().getText());
+                    }
+                }
+                for ( String name : names ) {
+                    globals.computeIfAbsent(name, k -> new ArrayList<>()).add(declaration);
+                }
+            }
+        }
+
+        Map<String, String> fingerprints = new LinkedHashMap<>();
+        for ( SysYParser.FuncDefContext funcDef : functions ) {
+            int start = funcDef.getStart().getTokenIndex();
+            StringBuilder sb = new StringBuilder(text(tokens, funcDef));
+            SortedSet<String> names = identifiers(tokens, start, funcDef.getStop().getTokenIndex());
+            Deque<String> pending = new ArrayDeque<>(names);
+            while ( !pending.isEmpty() ) {
+                for ( Declaration global : globals.getOrDefault(pending.pop(), Collections.emptyList()) ) {
+                    for ( String name : global.names ) {
+                        if ( names.add(name) ) {
+                            pending.push(name);
+                        }
+                    }
+                }
+            }
+            for ( String name : names ) {
+                for ( Declaration global : globals.getOrDefault(name, Collections.emptyList()) ) {
+                    sb.append(global.start < start ? "\nglobal before " : "\nglobal after ").append(global.text);
+                }
+                for ( Declaration header : headers.getOrDefault(name, Collections.emptyList()) ) {
+                    if ( header.start != start ) {
+                        sb.append(header.start < start ? "\nfunction before " : "\nfunction after ").append(header.text);
+                    }
+                }
+            }
+            if ( fingerprints.put(funcDef.funcName().getText(), sb.toString()) != null ) {
+                return null;
+            }
+        }
+        return fingerprints;
+    }
+
+    private static SortedSet<String> identifiers(TokenStream tokens, int start, int stop) {
+        SortedSet<String> names = new TreeSet<>();
+        for ( int i = start; i <= stop; i++ ) {
+            Token token = tokens.get(i);
+            if ( token.getType() == SysYLexer.IDENT ) {
+                names.add(token.getText());
+            }
+        }
+        return names;
+    }
+
+    private static String text(TokenStream tokens, ParserRuleContext ctx) {
+        return text(tokens, ctx.getStart().getTokenIndex(), ctx.getStop().getTokenIndex());
+    }
+
+    // Token texts only, so reformatting or editing comments keeps the fingerprint.
+    private static String text(TokenStream tokens, int start, int stop) {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = start; i <= stop; i++ ) {
+            Token token = tokens.get(i);
+            if ( token.getChannel() == Token.DEFAULT_CHANNEL ) {
+                sb.append(token.getText()).append(' ');
+            }
+        }
+        return sb.toString();
+    }
+}
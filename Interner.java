@@ -0,0 +1,60 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ *   Dense int IDs for names, counting up from 0 in order of first
+ *   appearance, so that tables keyed by name can be arrays or bit sets.
+ *   name(id) always returns the same String instance.
+ *
+ *   A child interner sees every name of its parent under the parent's ID
+ *   and numbers its own names after them. Children only read the parent,
+ *   so several of them may be used on different threads as long as the
+ *   parent no longer changes.
+ */
+public class Interner {
+    private final Interner parent;
+    private final int base;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    public Interner() {
+        this(null);
+    }
+
+    public Interner(Interner parent) {
+        this.parent = parent;
+        this.base = (parent != null) ? parent.size() : 0;
+    }
+
+    public int intern(String name) {
+        int id = lookup(name);
+        if ( id < 0 ) {
+            id = base + names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    // The ID of a name seen before, or -1.
+    public int lookup(String name) {
+        if ( parent != null ) {
+            int id = parent.lookup(name);
+            if ( id >= 0 ) {
+                return id;
+            }
+        }
+        Integer id = ids.get(name);
+        return (id != null) ? id : -1;
+    }
+
+    public String name(int id) {
+        return (id < base) ? parent.name(id) : names.get(id - base);
+    }
+
+    public int size() {
+        return base + names.size();
+    }
+}
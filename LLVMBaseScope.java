@@ -1,12 +1,12 @@
-import org.bytedeco.llvm.LLVM.LLVMTypeRef;
-import org.bytedeco.llvm.LLVM.LLVMValueRef;
+import java.util.Arrays;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
-
-public class LLVMBaseScope implements LLVMScope {
+/*
+ *   A scope that keeps the slots it owns in an array, at the index Binder
+ *   gave them, and hands every other slot to its enclosing scope.
+ */
+public abstract class LLVMBaseScope implements LLVMScope {
     private final LLVMScope enclosingScope;
-    public final Map<String, LLVMVar> vars = new LinkedHashMap<>();
+    private LLVMVar[] vars = new LLVMVar[16];
     private String name;
 
     public LLVMBaseScope(String name, LLVMScope enclosingScope) {
@@ -14,6 +14,9 @@ public class LLVMBaseScope implements LLVMScope {
         this.enclosingScope = enclosingScope;
     }
 
+    // The array index of slot, or -1 if this scope does not own it.
+    protected abstract int index(int slot);
+
     @Override
     public String getName() {
         return this.name;
@@ -30,18 +33,31 @@ public class LLVMBaseScope implements LLVMScope {
     }
 
     @Override
-    public void define(String name, LLVMVar var) {
-        vars.put(name, var);
+    public void define(int slot, LLVMVar var) {
+        int index = index(slot);
+        if ( index < 0 ) {
+            enclosingScope.define(slot, var);
+            return;
+        }
+        if ( index >= vars.length ) {
+            vars = Arrays.copyOf(vars, Math.max(index + 1, vars.length * 2));
+        }
+        vars[index] = var;
+    }
+
+    @Override
+    public LLVMVar resolve(int slot) {
+        int index = index(slot);
+        if ( index < 0 ) {
+            return (enclosingScope != null) ? enclosingScope.resolve(slot) : null;
+        }
+        return (index < vars.length) ? vars[index] : null;
     }
 
     @Override
-    public LLVMVar resolve(String name) {
-        LLVMVar var = vars.get(name);
-        return (var != null) ?
-                var :
-                ((enclosingScope != null) ?
-                        enclosingScope.resolve(name) :
-                        null);
+    public LLVMScope close() {
+        vars = null;
+        return enclosingScope;
     }
 
 
@@ -2,4 +2,9 @@ public class LLVMGlobalScope extends LLVMBaseScope {
     public LLVMGlobalScope(LLVMScope enclosingScope) {
         super("GlobalScope", enclosingScope);
     }
-}
\ No newline at end of file
+
+    @Override
+    protected int index(int slot) {
+        return Binder.isGlobal(slot) ? Binder.globalIndex(slot) : -1;
+    }
+}
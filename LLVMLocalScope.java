@@ -2,4 +2,9 @@ public class LLVMLocalScope extends LLVMBaseScope {
     public LLVMLocalScope(LLVMScope enclosingScope) {
         super("LocalScope", enclosingScope);
     }
+
+    @Override
+    protected int index(int slot) {
+        return (slot >= 0) ? slot : -1;
+    }
 }
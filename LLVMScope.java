@@ -1,8 +1,9 @@
-import org.bytedeco.llvm.LLVM.LLVMTypeRef;
-import org.bytedeco.llvm.LLVM.LLVMValueRef;
-
-import java.util.Map;
-
+/*
+ *   Where MyLLVMVisitor keeps the LLVMVar of each definition. Names are
+ *   already resolved by Binder, so a scope is keyed by Binder slot: global
+ *   slots live in the global scope, and a function's parameters and locals
+ *   in the one local scope it opens.
+ */
 public interface LLVMScope {
     public String getName();
 
@@ -10,9 +11,13 @@ public interface LLVMScope {
 
     public LLVMScope getEnclosingScope();
 
-    public void define(String name, LLVMVar var);
+    // Slots are Binder's.
+    public void define(int slot, LLVMVar var);
 
-    public LLVMVar resolve(String name);
+    // The definition in slot, or null if none was made.
+    public LLVMVar resolve(int slot);
 
-}
+    // Drops this scope's definitions and returns the enclosing scope.
+    public LLVMScope close();
 
+}
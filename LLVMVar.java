@@ -4,10 +4,20 @@ import org.bytedeco.llvm.LLVM.LLVMValueRef;
 public class LLVMVar {
     private LLVMValueRef value;
     private LLVMTypeRef type;
+    // Declared const. If folded at compile time, value is the constant
+    // itself rather than a pointer to its storage.
+    private final boolean constant;
+    private final boolean folded;
 
     LLVMVar(LLVMValueRef value, LLVMTypeRef type) {
+        this(value, type, false, false);
+    }
+
+    LLVMVar(LLVMValueRef value, LLVMTypeRef type, boolean constant, boolean folded) {
         this.value = value;
         this.type = type;
+        this.constant = constant;
+        this.folded = folded;
     }
 
     public LLVMValueRef getValue() {
@@ -16,6 +26,12 @@ public class LLVMVar {
     public LLVMTypeRef getType() {
         return this.type;
     }
+    public boolean isConstant() {
+        return this.constant;
+    }
+    public boolean isFolded() {
+        return this.folded;
+    }
 
     public void setValue(LLVMValueRef value) {
         this.value = value;
@@ -0,0 +1,165 @@
+import org.antlr.v4.runtime.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ *   Differential check of SysYScanner against the generated SysYLexer: both
+ *   lex the same bytes and must agree on every token (type, text, channel,
+ *   line, column, start and stop index) and every error message. Inputs are
+ *   the given sources (directories are searched for .sy files), the
+ *   BenchmarkCorpus corpus, and random soups of SysY fragments, comments,
+ *   stray characters and broken UTF-8.
+ *
+ *   LexerDiff [--random N] [--seed S] [file.sy | directory ...]
+ */
+public class LexerDiff {
+    private static final String[] FRAGMENTS = {
+            "const", "int", "void", "if", "else", "while", "break", "continue", "return",
+            "integer", "_x1", "iff", "A_b", "returned",
+            "0", "07", "08", "0778", "00", "123", "0x1f", "0XAb", "0x", "0xg", "12ab", "1_",
+            "+", "-", "*", "/", "%", "=", "==", "!=", "<", ">", "<=", ">=", "!", "&&", "||",
+            "&", "|", "&|", "(", ")", "{", "}", "[", "]", ",", ";",
+            " ", "  ", "\t", "\n", "\r\n", "\r",
+            "// comment\n", "//", "/* block */", "/* multi\n line */", "/*", "*/", "/**/", "/*/",
+            "#", "@", "$", "\"", "'", "\\", "\f", "\u00e9", "\u4e2d", "\ud83d\ude00",
+    };
+    private static final byte[][] BROKEN_UTF8 = {
+            { (byte) 0xff }, { (byte) 0xc3 }, { (byte) 0xe4, (byte) 0xb8 }, { (byte) 0x80 },
+            { (byte) 0xf0, (byte) 0x9f, (byte) 0x98 }, { (byte) 0xc0, (byte) 0xaf },
+    };
+
+    private int checked = 0;
+    private int failed = 0;
+
+    public static void main(String[] args) throws IOException {
+        int random = 2000;
+        long seed = 1;
+        LexerDiff diff = new LexerDiff();
+        List<Path> sources = new ArrayList<>();
+        for ( int i = 0; i < args.length; i++ ) {
+            if ( args[i].equals("--random") ) {
+                random = Integer.parseInt(args[++i]);
+            }
+            else if ( args[i].equals("--seed") ) {
+                seed = Long.parseLong(args[++i]);
+            }
+            else if ( Files.isDirectory(Paths.get(args[i])) ) {
+                sources.addAll(BatchCompiler.collectSources(Paths.get(args[i])));
+            }
+            else {
+                sources.add(Paths.get(args[i]));
+            }
+        }
+
+        for ( Path source : sources ) {
+            diff.check(source.toString(), Files.readAllBytes(source));
+        }
+        diff.check("generated small", BenchmarkCorpus.generate(1, 20, 1).getBytes(StandardCharsets.UTF_8));
+        diff.check("generated medium", BenchmarkCorpus.generate(20, 50, 2).getBytes(StandardCharsets.UTF_8));
+        Random rng = new Random(seed);
+        for ( int i = 0; i < random; i++ ) {
+            diff.check("random #" + i + " (seed " + seed + ")", soup(rng));
+        }
+        System.out.printf("%d input(s): %d match, %d differ%n", diff.checked, diff.checked - diff.failed, diff.failed);
+        System.exit(diff.failed == 0 ? 0 : 1);
+    }
+
+    private static byte[] soup(Random rng) {
+        StringBuilder sb = new StringBuilder();
+        List<byte[]> parts = new ArrayList<>();
+        int n = 1 + rng.nextInt(40);
+        for ( int i = 0; i < n; i++ ) {
+            if ( rng.nextInt(30) == 0 ) {
+                parts.add(sb.toString().getBytes(StandardCharsets.UTF_8));
+                parts.add(BROKEN_UTF8[rng.nextInt(BROKEN_UTF8.length)]);
+                sb.setLength(0);
+            }
+            else {
+                sb.append(FRAGMENTS[rng.nextInt(FRAGMENTS.length)]);
+            }
+        }
+        parts.add(sb.toString().getBytes(StandardCharsets.UTF_8));
+        int length = 0;
+        for ( byte[] part : parts ) {
+            length += part.length;
+        }
+        byte[] bytes = new byte[length];
+        int at = 0;
+        for ( byte[] part : parts ) {
+            System.arraycopy(part, 0, bytes, at, part.length);
+            at += part.length;
+        }
+        return bytes;
+    }
+
+    private void check(String name, byte[] bytes) throws IOException {
+        List<String> expectedErrors = new ArrayList<>();
+        SysYLexer lexer = new SysYLexer(CharStreams.fromStream(new ByteArrayInputStream(bytes)));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(collect(expectedErrors));
+        List<String> expected = lex(lexer);
+
+        List<String> actualErrors = new ArrayList<>();
+        SysYScanner scanner = new SysYScanner(bytes);
+        scanner.removeErrorListeners();
+        scanner.addErrorListener(collect(actualErrors));
+        List<String> actual = lex(scanner);
+
+        checked++;
+        String difference = firstDifference(expected, actual);
+        if ( difference == null ) {
+            difference = firstDifference(expectedErrors, actualErrors);
+        }
+        if ( difference != null ) {
+            failed++;
+            System.out.println("DIFFERS  " + name + ": " + difference);
+            if ( bytes.length < 200 ) {
+                System.out.println("    input: " + escape(new String(bytes, StandardCharsets.UTF_8)));
+            }
+        }
+    }
+
+    private static List<String> lex(TokenSource source) {
+        List<String> tokens = new ArrayList<>();
+        for ( Token token = source.nextToken(); ; token = source.nextToken() ) {
+            tokens.add(token.getType() + " '" + escape(token.getText()) + "' ch" + token.getChannel()
+                    + " " + token.getLine() + ":" + token.getCharPositionInLine()
+                    + " [" + token.getStartIndex() + ".." + token.getStopIndex() + "]");
+            if ( token.getType() == Token.EOF ) {
+                return tokens;
+            }
+        }
+    }
+
+    private static ANTLRErrorListener collect(List<String> errors) {
+        return new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object o, int i, int i1, String s, RecognitionException e) {
+                errors.add(i + ":" + i1 + " " + s);
+            }
+        };
+    }
+
+    private static String firstDifference(List<String> expected, List<String> actual) {
+        for ( int i = 0; i < Math.max(expected.size(), actual.size()); i++ ) {
+            String e = i < expected.size() ? expected.get(i) : "(none)";
+            String a = i < actual.size() ? actual.get(i) : "(none)";
+            if ( !e.equals(a) ) {
+                return "#" + i + " expected " + e + ", got " + a;
+            }
+        }
+        return null;
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+    }
+}
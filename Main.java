@@ -1,15 +1,12 @@
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.Token;
-import org.antlr.v4.runtime.tree.ParseTree;
-
-import org.bytedeco.javacpp.BytePointer;
-import org.bytedeco.llvm.LLVM.*;
-import static org.bytedeco.llvm.global.LLVM.*;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -25,75 +22,260 @@ public class Main
 //        }
 //    }
 
-    public static final BytePointer error = new BytePointer();
-
     public static void main(String[] args) {
+        if ( args.length > 0 && args[0].equals("--batch") ) {
+            System.exit(batch(args));
+        }
+        if ( args.length > 0 && args[0].equals("--train") ) {
+            System.exit(train(args));
+        }
+        if ( args.length > 0 && args[0].equals("--train-run") ) {
+            System.exit(trainRun(args));
+        }
+        if ( args.length > 0 && args[0].equals("--daemon") ) {
+            try {
+                new CompileServer(CompileServer.getPort()).serve();
+            }
+            catch (IOException e) {
+                System.err.println("Compile daemon stopped: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        boolean client = args.length > 0 && args[0].equals("--client");
+        if ( client ) {
+            if ( args.length < 3 ) {
+                System.err.println("Usage: Main --client [options] <source> <output>");
+                System.exit(2);
+            }
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        CompileOptions options;
+        try {
+            options = CompileOptions.parse(args);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(CompileOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        if ( client && options.daemonArgs() != null ) {
+            try {
+                if ( new CompileClient(CompileServer.getPort()).compile(options) ) {
+                    return;
+                }
+            }
+            catch (IOException e) {
+                System.err.println("Client failed: " + e);
+                System.exit(1);
+            }
+        }
+        // Without a daemon, or with options only this process can apply
+        // (see CompileOptions.daemonArgs), --client compiles here.
         try {
-            String source = args[0],
-                    ir_dest = "src/_ir.txt",
-                    code_dest = args[1];
+            String source = options.getSource(),
+                    ir_dest = options.getIrOutput(),
+                    code_dest = options.getOutput();
 //            String source = "src/_in.txt",
 //                    ir_dest = "src/_ir.txt",
 //                    code_dest = "src/_out.txt";
-            CharStream input = CharStreams.fromFileName(source);
-            SysYLexer sysYLexer = new SysYLexer(input);
-            CommonTokenStream tokens = new CommonTokenStream(sysYLexer);
-            SysYParser sysYParser = new SysYParser(tokens);
+            MyCompiler compiler = new MyCompiler();
+            PhaseTimer timer = options.newTimer();
+            compiler.setTimer(timer);
+            compiler.setParallelParse(options.isParallelParse());
+            ParserProfile profile = options.isProfileParser() ? new ParserProfile() : null;
+            compiler.setParserProfile(profile);
+            compiler.setFailFast(options.isFailFast());
+
+            CompileCache cache = options.newCache();
+            String cacheKey = null;
+            ByteArrayOutputStream lexerErrors = new ByteArrayOutputStream();
+            byte[] text = null;
+            if ( cache != null || options.isHandLexer() ) {
+                text = Files.readAllBytes(Paths.get(source));
+            }
+            if ( cache != null ) {
+                cacheKey = CompileCache.key(text, options.cacheKey());
+                long[] lookup = timer.start();
+                CompileCache.Entry hit = cache.lookup(cacheKey);
+                timer.stop(PhaseTimer.CACHE, lookup);
+                if ( hit != null ) {
+                    System.err.print(hit.lexerErrors);
+                    writeIR(options, hit.ir);
+                    writeQuietly(code_dest, hit.asm);
+                    // The reports still come out, with only the lookup in them.
+                    if ( profile != null ) {
+                        profile.cacheHit();
+                        profile.report(source, options.getParserProfile());
+                    }
+                    if ( options.isTimePhases() ) {
+                        timer.report(source, options.getTimingReport());
+                    }
+                    return;
+                }
+                compiler.setLexerErrors(new PrintStream(lexerErrors, true, "UTF-8"));
+                compiler.setCache(cache, options.cacheKey());
+            }
 
             /*
              *   LAB 1 - Error Listening
              */
-            MyErrorListener myErrorListener = new MyErrorListener();
-            sysYParser.removeErrorListeners();
-            sysYParser.addErrorListener(myErrorListener);
-            ParseTree tree = sysYParser.program();
-            if ( !myErrorListener.errorList.isEmpty() ) {
-                myErrorListener.printLexerErrorInformation();
-                System.exit(0);
+            boolean parsed;
+            if ( options.isHandLexer() ) {
+                parsed = options.isStream() ? compiler.parseStreaming(text) : compiler.parse(text);
+            }
+            else if ( text != null ) {
+                parsed = compiler.parse(CharStreams.fromString(new String(text, StandardCharsets.UTF_8)));
+            }
+            else {
+                CharStream input = MappedCharStream.open(Paths.get(source));
+                parsed = options.isStream() ? compiler.parseStreaming(input) : compiler.parse(input);
+            }
+            System.err.print(lexerErrors.toString("UTF-8"));
+            if ( profile != null ) {
+                profile.report(source, options.getParserProfile());
+            }
+            if ( !parsed ) {
+                compiler.printErrors();
+                if ( options.isTimePhases() ) {
+                    timer.report(source, options.getTimingReport());
+                }
+                System.exit(options.isFailFast() ? 1 : 0);
             }
 
 
             /*
              *   LAB 2 & 3 - Syntax Analyzing & Type Checking
              */
-//            MyVisitor visitor = new MyVisitor();
-//            visitor.visit(tree);
-//            if ( visitor.isCorrectProgram() ) {
-//                System.err.println("No semantic errors in the program!");
-//            }
+            if ( options.isCheck() && !compiler.check() ) {
+                compiler.printErrors();
+                if ( options.isTimePhases() ) {
+                    timer.report(source, options.getTimingReport());
+                }
+                System.exit(options.isFailFast() ? 1 : 0);
+            }
 
 
             /*
              *   LAB 4 & 5 - IR Generation
              */
-            LLVMInitializeCore(LLVMGetGlobalPassRegistry());
-            LLVMLinkInMCJIT();
-            LLVMInitializeNativeAsmPrinter();
-            LLVMInitializeNativeAsmParser();
-            LLVMInitializeNativeTarget();
-
-            MyLLVMVisitor visitor = new MyLLVMVisitor();
-            visitor.visit(tree);
-
-            LLVMModuleRef MODULE = visitor.getModule();
-            LLVMPrintModuleToFile(MODULE, ir_dest, error);
-            if (LLVMPrintModuleToFile(MODULE, ir_dest, error) != 0) {
-                LLVMDisposeMessage(error);
+            if ( !compiler.genIR() ) {
+                compiler.printErrors();
+                if ( options.isTimePhases() ) {
+                    timer.report(source, options.getTimingReport());
+                }
+                System.exit(1);
+            }
+            String ir = (cache != null) ? compiler.getIR() : null;
+            switch ( options.getIrFormat() ) {
+                case "ll":
+                    if ( ir != null ) {
+                        writeQuietly(ir_dest, ir);
+                    }
+                    else {
+                        compiler.writeIR(ir_dest);
+                    }
+                    break;
+                case "bc":
+                    compiler.writeBitcode(ir_dest);
+                    break;
+                default:
+                    break;
             }
 
 
             /*
              *   LAB 6 - Code Generation
              */
-            AsmBuilder asmBuilder = new AsmBuilder(MODULE);
-            asmBuilder.build();
-            asmBuilder.outputBuffer(code_dest);
+            compiler.genAsm();
+            compiler.writeAsm(code_dest);
+            if ( cache != null ) {
+                cache.store(cacheKey, new CompileCache.Entry(compiler.getAsm(), ir, lexerErrors.toString("UTF-8")));
+            }
 
+            if ( options.isTimePhases() ) {
+                timer.report(source, options.getTimingReport());
+            }
+
+        }
+        catch (IOException ignored) {}
+
+
+
+    }
+
+    private static void writeIR(CompileOptions options, String ir) {
+        switch ( options.getIrFormat() ) {
+            case "ll":
+                writeQuietly(options.getIrOutput(), ir);
+                break;
+            case "bc":
+                MyCompiler.writeBitcode(ir, options.getIrOutput());
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Main ignores unwritable output paths, and so does a cache hit.
+    private static void writeQuietly(String path, String text) {
+        try {
+            Files.write(Paths.get(path), text.getBytes(StandardCharsets.UTF_8));
         }
         catch (IOException ignored) {}
+    }
 
+    /*
+     *   Main --train <directory | manifest> <archive>
+     */
+    static int train(String[] args) {
+        if ( args.length < 3 ) {
+            System.err.println("Usage: Main --train <directory | manifest> <archive>");
+            return 2;
+        }
+        try {
+            return StartupArchive.train(Paths.get(args[1]), Paths.get(args[2]));
+        }
+        catch (IOException | InterruptedException e) {
+            System.err.println("Training failed: " + e.getMessage());
+            return 1;
+        }
+    }
 
+    /*
+     *   Main --train-run <directory | manifest>
+     */
+    static int trainRun(String[] args) {
+        if ( args.length < 2 ) {
+            System.err.println("Usage: Main --train-run <directory | manifest>");
+            return 2;
+        }
+        try {
+            return StartupArchive.replay(BatchCompiler.collectSources(Paths.get(args[1])));
+        }
+        catch (IOException e) {
+            System.err.println("Cannot read " + args[1] + ": " + e.getMessage());
+            return 2;
+        }
+    }
 
+    /*
+     *   Main --batch <directory | manifest>
+     */
+    static int batch(String[] args) {
+        if ( args.length < 2 ) {
+            System.err.println("Usage: Main --batch <directory | manifest>");
+            return 2;
+        }
+        try {
+            List<Path> sources = BatchCompiler.collectSources(Paths.get(args[1]));
+            return new BatchCompiler().run(sources);
+        }
+        catch (IOException e) {
+            System.err.println("Cannot read " + args[1] + ": " + e.getMessage());
+            return 2;
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ *   CharStream over a read-only memory-mapped source file. ASCII bytes are
+ *   their own code points, so the lexer reads the mapping directly instead
+ *   of a decoded int[] copy four times the size of the file, which is what
+ *   CharStreams.fromPath builds. Anything else goes through fromPath.
+ *
+ *   Token text is cut from the mapping on demand, so the file stays mapped
+ *   until the tokens are gone.
+ */
+public class MappedCharStream implements CharStream {
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final String name;
+    private int position = 0;
+
+    private MappedCharStream(MappedByteBuffer buffer, String name) {
+        this.buffer = buffer;
+        this.size = buffer.limit();
+        this.name = name;
+    }
+
+    public static CharStream open(Path path) throws IOException {
+        try ( FileChannel channel = FileChannel.open(path, StandardOpenOption.READ) ) {
+            long length = channel.size();
+            if ( length <= Integer.MAX_VALUE ) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                if ( isAscii(buffer) ) {
+                    return new MappedCharStream(buffer, path.toString());
+                }
+            }
+        }
+        return CharStreams.fromPath(path);
+    }
+
+    private static boolean isAscii(MappedByteBuffer buffer) {
+        int size = buffer.limit(), i = 0;
+        buffer.order(ByteOrder.nativeOrder());
+        for ( ; i + 8 <= size; i += 8 ) {
+            if ( (buffer.getLong(i) & 0x8080808080808080L) != 0 ) {
+                return false;
+            }
+        }
+        for ( ; i < size; i++ ) {
+            if ( buffer.get(i) < 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void consume() {
+        if ( position >= size ) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        position++;
+    }
+
+    @Override
+    public int LA(int i) {
+        if ( i == 0 ) {
+            return 0;
+        }
+        int offset = i > 0 ? position + i - 1 : position + i;
+        if ( offset < 0 || offset >= size ) {
+            return IntStream.EOF;
+        }
+        return buffer.get(offset);
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.min(interval.a, size);
+        int length = Math.min(interval.b - interval.a + 1, size - start);
+        if ( length <= 0 ) {
+            return "";
+        }
+        byte[] text = new byte[length];
+        for ( int i = 0; i < length; i++ ) {
+            text[i] = buffer.get(start + i);
+        }
+        return new String(text, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {}
+
+    @Override
+    public int index() {
+        return position;
+    }
+
+    @Override
+    public void seek(int index) {
+        position = index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, size - 1));
+    }
+}
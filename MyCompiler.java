@@ -0,0 +1,535 @@
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.llvm.LLVM.*;
+import static org.bytedeco.llvm.global.LLVM.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Consumer;
+
+/*
+ *   One compilation of one SysY source, split into the same phases Main
+ *   used to run inline. A new instance is needed per source; the LLVM
+ *   native setup is shared by every instance in the process.
+ */
+public class MyCompiler {
+    // Bump whenever a change alters the IR or assembly produced for a source,
+    // so that cached results from older builds are not reused.
+    public static final String VERSION = "2024.6-5";
+
+    private static boolean llvmInitialized = false;
+
+    private final BytePointer error = new BytePointer();
+    private final MyErrorListener myErrorListener = new MyErrorListener();
+    // Identifier IDs, shared by the front end and the backend.
+    private final Interner symbols = new Interner();
+    private ParseTree tree = null;
+    private MyLLVMVisitor visitor = null;
+    private AsmBuilder asmBuilder = null;
+    private PrintStream lexerErrors = System.err;
+    private PhaseTimer timer = PhaseTimer.DISABLED;
+    private CommonTokenStream tokens = null;
+    private CompileCache cache = null;
+    private String cacheOptions = "";
+    private Map<String, String> functionKeys = Collections.emptyMap();
+    private final Map<String, CompileCache.Entry> reused = new LinkedHashMap<>();
+    private boolean streamed = false;
+    private boolean parallelParse = false;
+    private ParserProfile profile = null;
+    private boolean failFast = false;
+
+    public static synchronized void initLLVM() {
+        if ( llvmInitialized ) {
+            return;
+        }
+        LLVMInitializeCore(LLVMGetGlobalPassRegistry());
+        LLVMLinkInMCJIT();
+        LLVMInitializeNativeAsmPrinter();
+        LLVMInitializeNativeAsmParser();
+        LLVMInitializeNativeTarget();
+        llvmInitialized = true;
+    }
+
+    /*
+     *   Where the lexer reports unrecognized characters, in the same
+     *   "line L:C msg" format as ANTLR's console listener. Defaults to stderr.
+     */
+    public void setLexerErrors(PrintStream lexerErrors) {
+        this.lexerErrors = lexerErrors;
+    }
+
+    public void setTimer(PhaseTimer timer) {
+        this.timer = timer;
+    }
+
+    /*
+     *   Parse large sources on all cores, see ParallelParser. Falls back to
+     *   the serial parser whenever that fails, so errors read the same.
+     */
+    public void setParallelParse(boolean parallelParse) {
+        this.parallelParse = parallelParse;
+    }
+
+    /*
+     *   Stop at the first lexer or syntax error, which is then the only one
+     *   in getErrors(). Tokens are lexed as the parser asks for them, so
+     *   a lexer error after a syntax error is never reached.
+     */
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    /*
+     *   Profile the prediction of every parser decision into the given
+     *   profile. Profiling parses serially, and with ANTLR's own prediction
+     *   for exp and cond too, see PrecedenceClimber.
+     */
+    public void setParserProfile(ParserProfile profile) {
+        this.profile = profile;
+    }
+
+    /*
+     *   Reuse the IR and assembly of functions whose fingerprint (see
+     *   FunctionFingerprints) matches one from an earlier compile. Those
+     *   functions are only declared in the module, and their cached text
+     *   is put back when the IR and assembly are printed.
+     */
+    public void setCache(CompileCache cache, String options) {
+        this.cache = cache;
+        this.cacheOptions = options;
+    }
+
+    /*
+     *   LAB 1 - Error Listening
+     *   Returns false if the source has syntax errors.
+     */
+    public boolean parse(CharStream input) {
+        SysYLexer sysYLexer = new SysYLexer(input);
+        sysYLexer.removeErrorListeners();
+        for ( ANTLRErrorListener listener : lexerListeners() ) {
+            sysYLexer.addErrorListener(listener);
+        }
+        return parse(sysYLexer);
+    }
+
+    /*
+     *   Same as parse(CharStream), with SysYScanner reading the UTF-8 bytes
+     *   instead of the generated lexer.
+     */
+    public boolean parse(byte[] source) {
+        SysYScanner scanner = new SysYScanner(source);
+        scanner.removeErrorListeners();
+        for ( ANTLRErrorListener listener : lexerListeners() ) {
+            scanner.addErrorListener(listener);
+        }
+        return parse(scanner);
+    }
+
+    private List<ANTLRErrorListener> lexerListeners() {
+        if ( failFast ) {
+            return List.of(myErrorListener.lexerListener(), STOP_LEXER);
+        }
+        return List.of(lexerListener(lexerErrors::println));
+    }
+
+    // Added after the listener that records the error.
+    private static final ANTLRErrorListener STOP_LEXER = new BaseErrorListener() {
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object o, int i, int i1, String s, RecognitionException e) {
+            throw new ParseCancellationException(s);
+        }
+    };
+
+    /*
+     *   Reports the first syntax error just as DefaultErrorStrategy does,
+     *   then stops the parse instead of recovering.
+     */
+    private static class FailFastErrorStrategy extends DefaultErrorStrategy {
+        @Override
+        public void reportError(Parser recognizer, RecognitionException e) {
+            super.reportError(recognizer, e);
+            throw new ParseCancellationException(e);
+        }
+
+        @Override
+        protected void reportUnwantedToken(Parser recognizer) {
+            super.reportUnwantedToken(recognizer);
+            throw new ParseCancellationException();
+        }
+
+        @Override
+        protected void reportMissingToken(Parser recognizer) {
+            super.reportMissingToken(recognizer);
+            throw new ParseCancellationException();
+        }
+    }
+
+    private static ANTLRErrorListener lexerListener(Consumer<String> report) {
+        return new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object o, int i, int i1, String s, RecognitionException e) {
+                report.accept("line " + i + ":" + i1 + " " + s);
+            }
+        };
+    }
+
+    /*
+     *   Parses and lowers one top-level funcDef or decl at a time, pulling
+     *   tokens as the parser needs them, so neither the whole token stream
+     *   nor the whole parse tree is ever held. genIR() then has nothing left
+     *   to do.
+     *
+     *   Streaming does not recover from errors: at the first syntax error
+     *   the IR built so far is dropped and the input goes through parse(),
+     *   which reports the errors as usual.
+     */
+    public boolean parseStreaming(CharStream input) {
+        List<String> errors = new ArrayList<>();
+        SysYLexer sysYLexer = new SysYLexer(input);
+        sysYLexer.removeErrorListeners();
+        sysYLexer.addErrorListener(lexerListener(errors::add));
+        if ( stream(sysYLexer, errors) ) {
+            return true;
+        }
+        input.seek(0);
+        return parse(input);
+    }
+
+    public boolean parseStreaming(byte[] source) {
+        List<String> errors = new ArrayList<>();
+        SysYScanner scanner = new SysYScanner(source);
+        scanner.removeErrorListeners();
+        scanner.addErrorListener(lexerListener(errors::add));
+        return stream(scanner, errors) || parse(source);
+    }
+
+    private boolean stream(TokenSource lexer, List<String> lexerMessages) {
+        initLLVM();
+        visitor = new MyLLVMVisitor();
+        visitor.startProgram();
+        AstBuilder astBuilder = new AstBuilder(symbols);
+        TokenStream input = new UnbufferedTokenStream<>(lexer);
+        SysYParser sysYParser = new SysYParser(input);
+        PrecedenceClimber.install(sysYParser);
+        sysYParser.removeErrorListeners();
+        sysYParser.setErrorHandler(new BailErrorStrategy());
+        if ( profile != null ) {
+            profile.attach(sysYParser);
+        }
+        sysYParser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        int items = 0;
+        try {
+            while ( input.LA(1) != Token.EOF ) {
+                long[] parse = timer.start();
+                ParserRuleContext item = isFuncDef(input) ? sysYParser.funcDef() : sysYParser.decl();
+                timer.stop(PhaseTimer.PARSE, parse);
+
+                long[] lower = timer.start();
+                Ast.Node lowered = astBuilder.item(item);
+                timer.stop(PhaseTimer.AST, lower);
+
+                long[] generate = timer.start();
+                visitor.visitItem(lowered);
+                timer.stop(PhaseTimer.IR_GEN, generate);
+                items++;
+            }
+        }
+        catch (ParseCancellationException | CompileError e) {
+            items = 0;
+        }
+        if ( profile != null ) {
+            profile.collect(sysYParser);
+        }
+        // compUnit needs at least one item, let parse() report an empty file.
+        // Constructs AstBuilder rejects are reported by genIR() after parse().
+        if ( items == 0 ) {
+            visitor.dispose();
+            visitor = null;
+            return false;
+        }
+        for ( String message : lexerMessages ) {
+            lexerErrors.println(message);
+        }
+        streamed = true;
+        return true;
+    }
+
+    // funcDef : funcType funcName L_PAREN ..., and funcType is VOID or INT.
+    private static boolean isFuncDef(TokenStream input) {
+        return input.LA(1) == SysYParser.VOID
+                || (input.LA(1) == SysYParser.INT && input.LA(3) == SysYParser.L_PAREN);
+    }
+
+    private boolean parse(TokenSource lexer) {
+        tokens = new CommonTokenStream(lexer);
+        if ( !failFast ) {
+            long[] lex = timer.start();
+            tokens.fill();
+            timer.stop(PhaseTimer.LEX, lex);
+        }
+
+        long[] parse = timer.start();
+        if ( parallelParse && profile == null && !failFast ) {
+            tree = ParallelParser.parse(tokens.getTokens());
+            if ( tree != null ) {
+                timer.stop(PhaseTimer.PARSE, parse);
+                return true;
+            }
+        }
+        // SLL first: almost every program parses there. Only if that fails is
+        // the input parsed again in full LL, which also reports the errors.
+        SysYParser sysYParser = new SysYParser(tokens);
+        PrecedenceClimber.install(sysYParser);
+        sysYParser.removeErrorListeners();
+        sysYParser.setErrorHandler(new BailErrorStrategy());
+        if ( profile != null ) {
+            profile.attach(sysYParser);
+        }
+        sysYParser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        try {
+            tree = sysYParser.program();
+        }
+        catch (ParseCancellationException e) {
+            if ( profile != null ) {
+                profile.retriedInLL();
+            }
+            // Only in fail-fast mode: the lexer stopped, nothing to retry.
+            if ( !myErrorListener.errorList.isEmpty() ) {
+                timer.stop(PhaseTimer.PARSE, parse);
+                return false;
+            }
+            tokens.seek(0);
+            sysYParser.reset();
+            sysYParser.addErrorListener(myErrorListener);
+            sysYParser.setErrorHandler(failFast ? new FailFastErrorStrategy() : new DefaultErrorStrategy());
+            sysYParser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            try {
+                tree = sysYParser.program();
+            }
+            catch (ParseCancellationException stopped) {
+                tree = null;
+            }
+        }
+        timer.stop(PhaseTimer.PARSE, parse);
+        if ( profile != null ) {
+            profile.collect(sysYParser);
+        }
+        return myErrorListener.errorList.isEmpty();
+    }
+
+    /*
+     *   LAB 3 - Type Checking. False if the program has semantic errors,
+     *   which are added to getErrors(), only the first in fail-fast mode.
+     */
+    public boolean check() {
+        long[] start = timer.start();
+        List<String> errors = SemanticChecker.check((SysYParser.ProgramContext) tree);
+        timer.stop(PhaseTimer.CHECK, start);
+        myErrorListener.errorList.addAll(failFast && !errors.isEmpty() ? errors.subList(0, 1) : errors);
+        return errors.isEmpty();
+    }
+
+    public List<String> getErrors() {
+        return myErrorListener.errorList;
+    }
+
+    public void printErrors() {
+        long[] start = timer.start();
+        myErrorListener.printLexerErrorInformation();
+        timer.stop(PhaseTimer.ERRORS, start);
+    }
+
+    /*
+     *   LAB 4 & 5 - IR Generation
+     *   Returns false if the program uses something that cannot be lowered
+     *   (see CompileError), which is then added to getErrors().
+     */
+    public boolean genIR() {
+        if ( streamed ) {
+            return true;
+        }
+        initLLVM();
+        long[] lower = timer.start();
+        Ast.Program program;
+        try {
+            program = new AstBuilder(symbols).program((SysYParser.ProgramContext) tree);
+        }
+        catch (CompileError e) {
+            myErrorListener.errorList.add(e.report());
+            return false;
+        }
+        finally {
+            timer.stop(PhaseTimer.AST, lower);
+        }
+
+        long[] start = timer.start();
+        visitor = new MyLLVMVisitor();
+        if ( cache != null ) {
+            lookupFunctions();
+            visitor.setPrebuilt(reused.keySet());
+        }
+        try {
+            visitor.visitProgram(program);
+        }
+        catch (CompileError e) {
+            myErrorListener.errorList.add(e.report());
+            return false;
+        }
+        finally {
+            timer.stop(PhaseTimer.IR_GEN, start);
+        }
+        return true;
+    }
+
+    public LLVMModuleRef getModule() {
+        return visitor.getModule();
+    }
+
+    private void lookupFunctions() {
+        Map<String, String> fingerprints = FunctionFingerprints.of((SysYParser.ProgramContext) tree, tokens);
+        if ( fingerprints == null ) {
+            return;
+        }
+        functionKeys = new LinkedHashMap<>();
+        for ( Map.Entry<String, String> entry : fingerprints.entrySet() ) {
+            String key = CompileCache.key(entry.getValue().getBytes(StandardCharsets.UTF_8), "function\0" + cacheOptions);
+            functionKeys.put(entry.getKey(), key);
+            CompileCache.Entry hit = cache.lookup(key);
+            if ( hit != null ) {
+                reused.put(entry.getKey(), hit);
+            }
+        }
+    }
+
+    /*
+     *   Streams the textual IR straight from LLVM to the file, unless cached
+     *   functions have to be put back into it first.
+     */
+    public void writeIR(String path) {
+        if ( !reused.isEmpty() ) {
+            try {
+                Files.write(Paths.get(path), getIR().getBytes(StandardCharsets.UTF_8));
+            }
+            catch (IOException ignored) {}
+            return;
+        }
+        long[] start = timer.start();
+        LLVMModuleRef MODULE = visitor.getModule();
+        if (LLVMPrintModuleToFile(MODULE, path, error) != 0) {
+            LLVMDisposeMessage(error);
+        }
+        timer.stop(PhaseTimer.IR_PRINT, start);
+    }
+
+    public void writeBitcode(String path) {
+        if ( !reused.isEmpty() ) {
+            writeBitcode(getIR(), path);
+            return;
+        }
+        long[] start = timer.start();
+        LLVMWriteBitcodeToFile(visitor.getModule(), path);
+        timer.stop(PhaseTimer.IR_PRINT, start);
+    }
+
+    /*
+     *   Bitcode for IR that only exists as text, such as a cache entry.
+     *   Unparsable text writes nothing.
+     */
+    public static void writeBitcode(String ir, String path) {
+        initLLVM();
+        byte[] bytes = ir.getBytes(StandardCharsets.UTF_8);
+        // The parser takes ownership of the buffer.
+        LLVMMemoryBufferRef buffer = LLVMCreateMemoryBufferWithMemoryRangeCopy(
+                new BytePointer(bytes), bytes.length, new BytePointer("ir"));
+        LLVMContextRef context = LLVMContextCreate();
+        LLVMModuleRef module = new LLVMModuleRef();
+        BytePointer message = new BytePointer();
+        if ( LLVMParseIRInContext(context, buffer, module, message) != 0 ) {
+            LLVMDisposeMessage(message);
+        }
+        else {
+            LLVMWriteBitcodeToFile(module, path);
+            LLVMDisposeModule(module);
+        }
+        LLVMContextDispose(context);
+    }
+
+    public String getIR() {
+        long[] start = timer.start();
+        BytePointer ir = LLVMPrintModuleToString(visitor.getModule());
+        String text = ir.getString();
+        LLVMDisposeMessage(ir);
+        for ( Map.Entry<String, CompileCache.Entry> entry : reused.entrySet() ) {
+            text = text.replace(functionIR(entry.getKey()), entry.getValue().ir);
+        }
+        timer.stop(PhaseTimer.IR_PRINT, start);
+        return text;
+    }
+
+    /*
+     *   LAB 6 - Code Generation
+     */
+    public void genAsm() {
+        asmBuilder = new AsmBuilder(visitor.getModule(), symbols);
+        asmBuilder.setTimer(timer);
+        Map<String, String> prebuilt = new HashMap<>();
+        for ( Map.Entry<String, CompileCache.Entry> entry : reused.entrySet() ) {
+            prebuilt.put(entry.getKey(), entry.getValue().asm);
+        }
+        asmBuilder.setPrebuilt(prebuilt);
+        asmBuilder.build();
+
+        if ( cache != null ) {
+            Map<String, CompileCache.Entry> built = new LinkedHashMap<>();
+            for ( Map.Entry<String, String> entry : functionKeys.entrySet() ) {
+                String name = entry.getKey();
+                if ( !reused.containsKey(name) ) {
+                    built.put(entry.getValue(), new CompileCache.Entry(
+                            asmBuilder.getFunctionAsm().get(name), functionIR(name), ""));
+                }
+            }
+            cache.storeAll(built);
+        }
+    }
+
+    private String functionIR(String name) {
+        BytePointer ir = LLVMPrintValueToString(LLVMGetNamedFunction(visitor.getModule(), name));
+        String text = ir.getString();
+        LLVMDisposeMessage(ir);
+        return text;
+    }
+
+    public void writeAsm(String path) {
+        long[] start = timer.start();
+        asmBuilder.outputBuffer(path);
+        timer.stop(PhaseTimer.OUTPUT, start);
+    }
+
+    public String getAsm() {
+        long[] start = timer.start();
+        String asm = asmBuilder.getOutput();
+        timer.stop(PhaseTimer.OUTPUT, start);
+        return asm;
+    }
+
+    /*
+     *   Releases the native module and builder. Long-running drivers must
+     *   call this after each source, single-shot ones may just exit.
+     */
+    public void dispose() {
+        if ( visitor != null ) {
+            visitor.dispose();
+            visitor = null;
+        }
+        asmBuilder = null;
+        tree = null;
+    }
+}
@@ -12,6 +12,19 @@ public class MyErrorListener extends BaseErrorListener {
         errorList.add("Error type B at Line " + i + ": " + s);
     }
 
+    /*
+     *   For the lexer, whose errors are type A. They go to the same list, so
+     *   the list stays in the order errors were found.
+     */
+    public ANTLRErrorListener lexerListener() {
+        return new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object o, int i, int i1, String s, RecognitionException e) {
+                errorList.add("Error type A at Line " + i + ": " + s);
+            }
+        };
+    }
+
     @Override
     public void reportAmbiguity(Parser parser, DFA dfa, int i, int i1, boolean b, BitSet bitSet, ATNConfigSet atnConfigSet) {
 
@@ -1,35 +1,88 @@
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.TerminalNode;
-
+import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.javacpp.Pointer;
 import org.bytedeco.javacpp.PointerPointer;
 import org.bytedeco.llvm.LLVM.*;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
 import java.util.Stack;
 
 import static org.bytedeco.llvm.global.LLVM.*;
 import static org.bytedeco.llvm.global.LLVM.LLVMFunctionType;
 
-public class MyLLVMVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
-
-    LLVMModuleRef module = LLVMModuleCreateWithName("module");
-    LLVMBuilderRef builder = LLVMCreateBuilder();
-    LLVMTypeRef i32Type = LLVMInt32Type();
-    LLVMTypeRef i1Type = LLVMInt1Type();
-    LLVMTypeRef voidType = LLVMVoidType();
+/*
+ *   Builds the LLVM module of a program from its Ast (see AstBuilder).
+ */
+public class MyLLVMVisitor {
+
+    // A context of its own, so that compiles on different threads share no LLVM state.
+    LLVMContextRef context = LLVMContextCreate();
+    LLVMModuleRef module = LLVMModuleCreateWithNameInContext("module", context);
+    LLVMBuilderRef builder = LLVMCreateBuilderInContext(context);
+    LLVMTypeRef i32Type = LLVMInt32TypeInContext(context);
+    LLVMTypeRef i1Type = LLVMInt1TypeInContext(context);
+    LLVMTypeRef voidType = LLVMVoidTypeInContext(context);
     LLVMValueRef zero = LLVMConstInt(i32Type, 0, /* signExtend */ 0);
+    LLVMValueRef i1One = LLVMConstInt(i1Type, 1, /* signExtend */ 0);
+
+    /*
+        NATIVE BUFFERS
+     */
+    // Value and block names, encoded once instead of by every LLVMBuild* call.
+    private final BytePointer tmpName = new BytePointer("tmp_");
+    private final BytePointer resultName = new BytePointer("result");
+    private final BytePointer trueName = new BytePointer("true");
+    private final BytePointer falseName = new BytePointer("false");
+    private final BytePointer entryName = new BytePointer("entry");
+    private final BytePointer whileConditionName = new BytePointer("whileCondition");
+    private final BytePointer whileBodyName = new BytePointer("whileBody");
+    private final BytePointer andLeftName = new BytePointer("andLeft");
+    private final BytePointer andRightName = new BytePointer("andRight");
+    private final BytePointer andFinallyName = new BytePointer("andFinally");
+    private final BytePointer orLeftName = new BytePointer("orLeft");
+    private final BytePointer orRightName = new BytePointer("orRight");
+    private final BytePointer orFinallyName = new BytePointer("orFinally");
+    // Identifiers by Interner ID, encoded when first used.
+    private BytePointer[] identifiers = new BytePointer[64];
+
+    /*
+     *   Call arguments and parameter types, as a stack: a call puts its
+     *   arguments above operandTop, so the calls among them use the room
+     *   above theirs, and hands LLVM the buffer from where its own begin.
+     */
+    private PointerPointer<Pointer> operands = new PointerPointer<>(64);
+    private int operandTop = 0;
 
     public LLVMModuleRef getModule() {
         return module;
     }
 
+    public void dispose() {
+        for ( BytePointer name : new BytePointer[] { tmpName, resultName, trueName, falseName, entryName,
+                whileConditionName, whileBodyName, andLeftName, andRightName, andFinallyName,
+                orLeftName, orRightName, orFinallyName } ) {
+            name.close();
+        }
+        for ( BytePointer identifier : identifiers ) {
+            if ( identifier != null ) {
+                identifier.close();
+            }
+        }
+        operands.close();
+        LLVMDisposeBuilder(builder);
+        LLVMDisposeModule(module);
+        LLVMContextDispose(context);
+    }
+
     public LLVMTypeRef getLLVMType(String typeName) {
         return typeName.equals("int") ? i32Type : voidType;
     }
 
-    private LLVMGlobalScope globalScope = null;
-    private int localScopeCounter = 0;
-    private LLVMScope currentScope = null;
+    // Definitions by Binder slot: globals and functions, and the current function's locals.
+    private Binder binder = new Binder();
+    private LLVMGlobalScope globalScope = new LLVMGlobalScope(null);
+    private LLVMScope currentScope = globalScope;
     private LLVMBasicBlockRef currentBlock = null;
     private LLVMValueRef currentFunction = null;
 
@@ -39,403 +92,456 @@ public class MyLLVMVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
 
     private boolean labelReturn = false;
 
+    // Functions whose body comes from an earlier compile, see MyCompiler.
+    private Set<String> prebuilt = Collections.emptySet();
 
-    @Override
-    public LLVMValueRef visit(ParseTree tree) {
-        return super.visit(tree);
+    public void setPrebuilt(Set<String> prebuilt) {
+        this.prebuilt = prebuilt;
     }
 
-    @Override
-    public LLVMValueRef visitTerminal(TerminalNode node) {
-        return super.visitTerminal(node);
-    }
 
-    @Override
-    public LLVMValueRef visitProgram(SysYParser.ProgramContext ctx) {
+    /*
+     *   Starts a new program. visitProgram does this itself; a caller that
+     *   visits the top-level funcDefs and decls one by one (see
+     *   MyCompiler.parseStreaming) calls it before the first.
+     */
+    public void startProgram() {
+        binder = new Binder();
         globalScope = new LLVMGlobalScope(null);
         currentScope = globalScope;
-        LLVMValueRef ret = super.visitProgram(ctx);
-        currentScope = currentScope.getEnclosingScope();
-        return ret;
     }
 
-    @Override
-    public LLVMValueRef visitCompUnit(SysYParser.CompUnitContext ctx) {
-        return super.visitCompUnit(ctx);
+    // Names are bound for the whole program first, see Binder.
+    public void visitProgram(Ast.Program program) {
+        startProgram();
+        binder.bind(program);
+        for ( Ast.Node item : program.items ) {
+            emitItem(item);
+        }
     }
 
-    @Override
-    public LLVMValueRef visitBlock(SysYParser.BlockContext ctx) {
-        LLVMLocalScope localScope = new LLVMLocalScope(currentScope);
-        localScopeCounter++;
-        String localScopeName = localScope.getName() + localScopeCounter;
-        localScope.setName(localScopeName);
-        currentScope = localScope;
-        LLVMValueRef ret = super.visitBlock(ctx);
-        currentScope = currentScope.getEnclosingScope();
-        return ret;
+    public void visitItem(Ast.Node item) {
+        binder.bindItem(item);
+        emitItem(item);
+    }
+
+    private void emitItem(Ast.Node item) {
+        if ( item.kind == Ast.Kind.FUNC ) {
+            visitFunc((Ast.Func) item);
+        }
+        else {
+            visitDecl((Ast.Decl) item, true);
+        }
+    }
+
+    private void visitBlock(Ast.Block block) {
+        for ( Ast.Node item : block.items ) {
+            if ( item.kind == Ast.Kind.DECL ) {
+                visitDecl((Ast.Decl) item, false);
+            }
+            else {
+                visitStmt(item);
+            }
+        }
     }
 
-    @Override
-    public LLVMValueRef visitFuncDef(SysYParser.FuncDefContext ctx) {
+    private void define(int ref, LLVMVar var) {
+        currentScope.define(binder.slot(ref), var);
+    }
+
+    private BytePointer identifier(int id, String name) {
+        if ( id >= identifiers.length ) {
+            identifiers = Arrays.copyOf(identifiers, Math.max(id + 1, identifiers.length * 2));
+        }
+        if ( identifiers[id] == null ) {
+            identifiers[id] = new BytePointer(name);
+        }
+        return identifiers[id];
+    }
+
+    // Room for count more operands above operandTop.
+    private void reserveOperands(int count) {
+        if ( operandTop + count > operands.capacity() ) {
+            PointerPointer<Pointer> grown = new PointerPointer<>(Math.max(operandTop + count, operands.capacity() * 2));
+            for ( int i = 0; i < operandTop; i++ ) {
+                grown.put(i, operands.get(i));
+            }
+            operands.close();
+            operands = grown;
+        }
+    }
+
+    // The definition an occurrence names, or null if it names none.
+    private LLVMVar lookup(int ref) {
+        int slot = binder.slot(ref);
+        return (slot == Binder.UNBOUND) ? null : currentScope.resolve(slot);
+    }
+
+    private LLVMValueRef visitFunc(Ast.Func func) {
         // Generate arguments
-        int paramCount = (ctx.funcFParams() != null) ? ctx.funcFParams().funcFParam().size() : 0;
-        PointerPointer<Pointer> argumentTypes = new PointerPointer<>(paramCount);
+        int paramCount = func.params.size();
+        reserveOperands(paramCount);
         for ( int i = 0; i < paramCount; i++ ) {
-            argumentTypes.put(i, getLLVMType(ctx.funcFParams().funcFParam(i).bType().getText()));
+            operands.put(i, i32Type);
         }
 
         // Generate the function
-        String functionName = ctx.funcName().getText();
-        LLVMTypeRef functionType = LLVMFunctionType(
-                getLLVMType(ctx.funcType().getText()),
-                argumentTypes, paramCount, 0);
+        String functionName = func.name;
+        LLVMTypeRef returnType = func.returnsInt ? i32Type : voidType;
+        LLVMTypeRef functionType = LLVMFunctionType(returnType, operands, paramCount, 0);
         LLVMValueRef function = LLVMAddFunction(module, functionName, functionType);
-        LLVMBasicBlockRef entryBlock = LLVMAppendBasicBlock(function, functionName + "Entry");
+        if ( prebuilt.contains(functionName) ) {
+            // Declaration only, enough for the callers.
+            define(func.ref, new LLVMVar(function, functionType));
+            return function;
+        }
+        LLVMBasicBlockRef entryBlock = LLVMAppendBasicBlockInContext(context, function, functionName + "Entry");
         LLVMPositionBuilderAtEnd(builder, entryBlock);
         currentFunction = function;
         currentBlock = entryBlock;
-        currentScope.define(functionName, new LLVMVar(function, functionType));
-        currentScope = new LLVMLocalScope(currentScope);
+        define(func.ref, new LLVMVar(function, functionType));
+        // Blocks need no scope of their own: Binder gave every local its own slot.
+        currentScope = new LLVMLocalScope(globalScope);
+        currentScope.setName(functionName);
 
         // Load params as local vars
         for ( int i = 0; i < paramCount; i++ ) {
-            String paramName = ctx.funcFParams().funcFParam(i).IDENT().getText();
-            LLVMTypeRef paramType = getLLVMType(ctx.funcFParams().funcFParam(i).bType().getText());
-            LLVMValueRef paramValue = LLVMBuildAlloca(builder, paramType, paramName);
-            currentScope.define(paramName, new LLVMVar(paramValue, paramType));
+            Ast.Def param = func.params.get(i);
+            LLVMValueRef paramValue = LLVMBuildAlloca(builder, i32Type, identifier(param.id, param.name));
+            define(param.ref, new LLVMVar(paramValue, i32Type));
             LLVMBuildStore(builder, LLVMGetParam(function, i), paramValue);
         }
 
         this.labelReturn = false;
-        super.visitFuncDef(ctx);
+        visitBlock(func.body);
         if ( !labelReturn ) {
-            LLVMBuildRet(builder,
-                    getLLVMType(ctx.funcType().getText()).equals(voidType)
-                            ? null : zero);
+            LLVMBuildRet(builder, func.returnsInt ? zero : null);
         }
-        currentScope = currentScope.getEnclosingScope();
         this.labelReturn = false;
+        currentScope = currentScope.close();
         return function;
     }
 
-    @Override
-    public LLVMValueRef visitStmt(SysYParser.StmtContext ctx) {
-        if ( ctx.returnStmt() != null ) {
-            this.labelReturn = true;
-            return LLVMBuildRet(builder,
-                    ctx.returnStmt() == null ? null : evalExp(ctx.returnStmt().exp()));
-        }
-        else if ( ctx.assignment() != null ) {
-            return LLVMBuildStore(builder,
-                    evalExp(ctx.assignment().exp()),
-                    currentScope.resolve(ctx.assignment().lVal().getText()).getValue());
-        }
-        else if ( ctx.ifStmt() != null ) {
-            LLVMBasicBlockRef
-                    trueBlock = LLVMAppendBasicBlock(currentFunction, "true"),
-                    falseBlock = LLVMAppendBasicBlock(currentFunction, "false"),
-                    finallyBlock = LLVMAppendBasicBlock(currentFunction, "entry");
-            LLVMBuildCondBr(builder,
-                    LLVMBuildICmp(builder,
-                            LLVMIntNE, zero, evalCond(ctx.ifStmt().cond()), "tmp_"),
-                    trueBlock, falseBlock);
-
-            // True Block
-            LLVMPositionBuilderAtEnd(builder, trueBlock);
-            this.visit(ctx.ifStmt().stmt(0));
-            LLVMBuildBr(builder, finallyBlock);
-
-            // False Block
-            LLVMPositionBuilderAtEnd(builder, falseBlock);
-            if ( ctx.ifStmt().ELSE() != null )
-                this.visit(ctx.ifStmt().stmt(1));
-            LLVMBuildBr(builder, finallyBlock);
-
-            // Finally Block
-            LLVMPositionBuilderAtEnd(builder, finallyBlock);
-            this.labelReturn = false;
-            return null;
-        }
-        else if ( ctx.whileStmt() != null ) {
-            LLVMBasicBlockRef
-                    condBlock = LLVMAppendBasicBlock(currentFunction, "whileCondition"),
-                    bodyBlock = LLVMAppendBasicBlock(currentFunction, "whileBody"),
-                    finallyBlock = LLVMAppendBasicBlock(currentFunction, "entry");
-
-            // Cond Block
-            LLVMBuildBr(builder, condBlock);
-            LLVMPositionBuilderAtEnd(builder, condBlock);
-
-            // Body Block
-            LLVMBuildCondBr(builder,
-                    LLVMBuildICmp(builder,
-                            LLVMIntNE, zero,
-                            evalCond(ctx.whileStmt().cond()), "tmp_"),
-                    bodyBlock,
-                    finallyBlock);
-            LLVMPositionBuilderAtEnd(builder, bodyBlock);
-
-            // Save Labels
-            labelBreak.push(finallyBlock);
-            labelContinue.push(condBlock);
-            this.visitStmt(ctx.whileStmt().stmt());
-            LLVMBuildBr(builder, condBlock);
-            labelBreak.pop();
-            labelContinue.pop();
-
-            // Finally Block
-            LLVMPositionBuilderAtEnd(builder, finallyBlock);
-            return null;
-        }
-        else if ( ctx.breakStmt() != null ) {
-            return LLVMBuildBr(builder, labelBreak.peek());
-        }
-        else if ( ctx.continueStmt() != null ) {
-            return LLVMBuildBr(builder, labelContinue.peek());
+    private void visitStmt(Ast.Node stmt) {
+        switch ( stmt.kind ) {
+            case RETURN: {
+                Ast.Return ret = (Ast.Return) stmt;
+                this.labelReturn = true;
+                LLVMBuildRet(builder, ret.value == null ? null : evalExp(ret.value));
+                break;
+            }
+            case ASSIGN: {
+                Ast.Assign assign = (Ast.Assign) stmt;
+                LLVMVar target = resolve(assign.target);
+                if ( target != null && target.isConstant() ) {
+                    throw new CompileError(assign.line, "Cannot assign to constant: " + assign.target.name);
+                }
+                LLVMBuildStore(builder, evalExp(assign.value), target.getValue());
+                break;
+            }
+            case IF: {
+                Ast.If ifStmt = (Ast.If) stmt;
+                LLVMBasicBlockRef
+                        trueBlock = LLVMAppendBasicBlockInContext(context, currentFunction, trueName),
+                        falseBlock = LLVMAppendBasicBlockInContext(context, currentFunction, falseName),
+                        finallyBlock = LLVMAppendBasicBlockInContext(context, currentFunction, entryName);
+                LLVMBuildCondBr(builder,
+                        LLVMBuildICmp(builder,
+                                LLVMIntNE, zero, evalCond(ifStmt.cond), tmpName),
+                        trueBlock, falseBlock);
+
+                // True Block
+                LLVMPositionBuilderAtEnd(builder, trueBlock);
+                visitStmt(ifStmt.then);
+                LLVMBuildBr(builder, finallyBlock);
+
+                // False Block
+                LLVMPositionBuilderAtEnd(builder, falseBlock);
+                if ( ifStmt.otherwise != null )
+                    visitStmt(ifStmt.otherwise);
+                LLVMBuildBr(builder, finallyBlock);
+
+                // Finally Block
+                LLVMPositionBuilderAtEnd(builder, finallyBlock);
+                this.labelReturn = false;
+                break;
+            }
+            case WHILE: {
+                Ast.While whileStmt = (Ast.While) stmt;
+                LLVMBasicBlockRef
+                        condBlock = LLVMAppendBasicBlockInContext(context, currentFunction, whileConditionName),
+                        bodyBlock = LLVMAppendBasicBlockInContext(context, currentFunction, whileBodyName),
+                        finallyBlock = LLVMAppendBasicBlockInContext(context, currentFunction, entryName);
+
+                // Cond Block
+                LLVMBuildBr(builder, condBlock);
+                LLVMPositionBuilderAtEnd(builder, condBlock);
+
+                // Body Block
+                LLVMBuildCondBr(builder,
+                        LLVMBuildICmp(builder,
+                                LLVMIntNE, zero,
+                                evalCond(whileStmt.cond), tmpName),
+                        bodyBlock,
+                        finallyBlock);
+                LLVMPositionBuilderAtEnd(builder, bodyBlock);
+
+                // Save Labels
+                labelBreak.push(finallyBlock);
+                labelContinue.push(condBlock);
+                visitStmt(whileStmt.body);
+                LLVMBuildBr(builder, condBlock);
+                labelBreak.pop();
+                labelContinue.pop();
+
+                // Finally Block
+                LLVMPositionBuilderAtEnd(builder, finallyBlock);
+                break;
+            }
+            case BREAK:
+                LLVMBuildBr(builder, labelBreak.peek());
+                break;
+            case CONTINUE:
+                LLVMBuildBr(builder, labelContinue.peek());
+                break;
+            case BLOCK:
+                visitBlock((Ast.Block) stmt);
+                break;
+            default:
+                // An expression statement generates nothing.
+                break;
         }
-        return super.visitStmt(ctx);
     }
 
-    @Override
-    public LLVMValueRef visitVarDecl(SysYParser.VarDeclContext ctx) {
-        String typeName = ctx.bType().getText();
-        if ( currentScope == globalScope ) {
-            for ( SysYParser.VarDefContext varDefContext : ctx.varDef() ) {
-                LLVMValueRef globalVar = LLVMAddGlobal(module,
-                        getLLVMType(typeName),
-                        varDefContext.IDENT().getText());
-                if ( varDefContext.ASSIGN() != null ) {
-                    LLVMSetInitializer(globalVar, evalExp(varDefContext.initVal().exp()));
+    private void visitDecl(Ast.Decl decl, boolean global) {
+        if ( global ) {
+            for ( Ast.Def def : decl.defs ) {
+                if ( decl.isConst && defineConstant(def) ) {
+                    continue;
                 }
-                else {
-                    LLVMSetInitializer(globalVar, zero);
-                }
-                currentScope.define(varDefContext.IDENT().getText(),
-                        new LLVMVar(globalVar, getLLVMType(typeName)));
+                LLVMValueRef globalVar = LLVMAddGlobal(module, i32Type, identifier(def.id, def.name));
+                LLVMSetInitializer(globalVar, (def.init != null) ? evalExp(def.init) : zero);
+                define(def.ref, new LLVMVar(globalVar, i32Type, decl.isConst, false));
             }
         }
         else {
-            for ( SysYParser.VarDefContext varDefContext : ctx.varDef() ) {
-                LLVMValueRef localVar = LLVMBuildAlloca(builder,
-                        getLLVMType(typeName),
-                        varDefContext.IDENT().getText());
-                if ( varDefContext.ASSIGN() != null ) {
-                    LLVMBuildStore(builder,
-                            evalExp(varDefContext.initVal().exp()),
-                            localVar);
+            for ( Ast.Def def : decl.defs ) {
+                if ( decl.isConst && defineConstant(def) ) {
+                    continue;
+                }
+                LLVMValueRef localVar = LLVMBuildAlloca(builder, i32Type, identifier(def.id, def.name));
+                if ( def.init != null ) {
+                    LLVMBuildStore(builder, evalExp(def.init), localVar);
                 }
-                currentScope.define(varDefContext.IDENT().getText(),
-                        new LLVMVar(localVar, getLLVMType(typeName)));
+                define(def.ref, new LLVMVar(localVar, i32Type, decl.isConst, false));
             }
         }
-        return super.visitVarDecl(ctx);
     }
 
-    @Override
-    public LLVMValueRef visitConstDecl(SysYParser.ConstDeclContext ctx) {
-        String typeName = ctx.bType().getText();
-        if ( currentScope == globalScope ) {
-            for ( SysYParser.ConstDefContext constDefContext : ctx.constDef() ) {
-                LLVMValueRef globalVar = LLVMAddGlobal(module,
-                        getLLVMType(typeName),
-                        constDefContext.IDENT().getText());
-                if ( constDefContext.ASSIGN() != null ) {
-                    LLVMSetInitializer(globalVar, evalExp(constDefContext.constInitVal().constExp().exp()));
+    /*
+     *   A const whose value is known here needs no storage: every use gets
+     *   the value as an immediate. Otherwise it is stored like a variable.
+     */
+    private boolean defineConstant(Ast.Def def) {
+        Integer value = (def.init != null) ? constValue(def.init) : null;
+        if ( value == null ) {
+            return false;
+        }
+        define(def.ref, new LLVMVar(LLVMConstInt(i32Type, value, /* signExtend */ 1), i32Type, true, true));
+        return true;
+    }
+
+    // The value of exp if it only reads numbers and folded consts, else null.
+    private Integer constValue(Ast.Expr exp) {
+        switch ( exp.kind ) {
+            case NUM:
+                return ((Ast.Num) exp).value;
+            case VAR: {
+                Ast.Var var = (Ast.Var) exp;
+                LLVMVar target = var.indexes.isEmpty() ? lookup(var.ref) : null;
+                return (target != null && target.isFolded()) ? (int) LLVMConstIntGetSExtValue(target.getValue()) : null;
+            }
+            case UNARY: {
+                Ast.Unary unary = (Ast.Unary) exp;
+                Integer operand = constValue(unary.operand);
+                if ( operand == null ) {
+                    return null;
                 }
-                currentScope.define(constDefContext.IDENT().getText(),
-                        new LLVMVar(globalVar, getLLVMType(typeName)));
+                return (unary.op == Ast.Op.MINUS) ? -operand : ((operand == 0) ? 1 : 0);
             }
-        }
-        else {
-            for ( SysYParser.ConstDefContext constDefContext : ctx.constDef() ) {
-                LLVMValueRef localVar = LLVMBuildAlloca(builder,
-                        getLLVMType(typeName),
-                        constDefContext.IDENT().getText());
-                LLVMBuildStore(builder,
-                        evalExp(constDefContext.constInitVal().constExp().exp()),
-                        localVar);
-                currentScope.define(constDefContext.IDENT().getText(),
-                        new LLVMVar(localVar, getLLVMType(typeName)));
+            case BINARY: {
+                Ast.Binary binary = (Ast.Binary) exp;
+                Integer left = constValue(binary.left), right = constValue(binary.right);
+                if ( left == null || right == null ) {
+                    return null;
+                }
+                switch ( binary.op ) {
+                    case ADD: return left + right;
+                    case SUB: return left - right;
+                    case MUL: return left * right;
+                    // Left to run time, as before.
+                    case DIV: return (right == 0) ? null : left / right;
+                    case MOD: return (right == 0) ? null : left % right;
+                    default: return null;
+                }
             }
+            default:
+                return null;
         }
-        return super.visitConstDecl(ctx);
     }
 
-    public Integer parseDecimal(String number) {
-        return (number.startsWith("0x") || number.startsWith("0X"))
-                ? Integer.parseInt(number.substring(2), 16)
-                : ((number.startsWith("0") && number.length() != 1)
-                    ? Integer.parseInt(number.substring(1), 8)
-                    : Integer.parseInt(number, 10)
-                    );
+    // AstBuilder rejects array elements, so every Var is a scalar.
+    private LLVMVar resolve(Ast.Var var) {
+        return lookup(var.ref);
     }
 
-    public LLVMValueRef evalExp(SysYParser.ExpContext ctx) {
-        if ( ctx instanceof SysYParser.ParenExpContext ) {
-            return evalExp(((SysYParser.ParenExpContext) ctx).exp());
-        }
-        if ( ctx instanceof SysYParser.NumExpContext ) {
-            return LLVMConstInt(i32Type,
-                    parseDecimal(((SysYParser.NumExpContext) ctx).number().getText()),
-                    0);
-        }
-        if ( ctx instanceof SysYParser.LValExpContext ) {
-            return LLVMBuildLoad(builder,
-                    currentScope.resolve(((SysYParser.LValExpContext) ctx).lVal().getText()).getValue(),
-                    ((SysYParser.LValExpContext) ctx).lVal().getText());
-        }
-        if ( ctx instanceof SysYParser.FuncCallExpContext ) {
-            SysYParser.FuncCallExpContext ctx_ = ((SysYParser.FuncCallExpContext) ctx);
-            String funcName = ctx_.funcName().IDENT().getText();
-            int paramCount = ctx_.funcRParams() == null
-                    ? 0 : ctx_.funcRParams().param().size();
-            PointerPointer<Pointer> params = new PointerPointer<>(paramCount);
-            for ( int i = 0; i < paramCount; i++ ) {
-                params.put(i, this.evalExp(ctx_.funcRParams().param(i).exp()));
-            }
-            return LLVMBuildCall(builder,
-                    currentScope.resolve(funcName).getValue(),
-                    params, paramCount, funcName);
-        }
-        if ( ctx instanceof SysYParser.UnaryExpContext ) {
-            if ( ((SysYParser.UnaryExpContext) ctx).unaryOp().PLUS() != null ) {
-                return evalExp(((SysYParser.UnaryExpContext) ctx).exp());
+    public LLVMValueRef evalExp(Ast.Expr exp) {
+        switch ( exp.kind ) {
+            case NUM:
+                return LLVMConstInt(i32Type, ((Ast.Num) exp).value, 0);
+            case VAR: {
+                Ast.Var var = (Ast.Var) exp;
+                LLVMVar target = resolve(var);
+                if ( target != null && target.isFolded() ) {
+                    return target.getValue();
+                }
+                return LLVMBuildLoad(builder, target.getValue(), identifier(var.id, var.name));
             }
-            else if ( ((SysYParser.UnaryExpContext) ctx).unaryOp().MINUS() != null ) {
-                return LLVMBuildNeg(builder,
-                        evalExp(((SysYParser.UnaryExpContext) ctx).exp()),
-                        "tmp_");
+            case CALL: {
+                Ast.Call call = (Ast.Call) exp;
+                int paramCount = call.args.size();
+                LLVMValueRef function = lookup(call.ref).getValue();
+                // The bindings only take a BytePointer name with the arguments
+                // passed by pointer, which holds at most one of them.
+                if ( paramCount <= 1 ) {
+                    LLVMValueRef arg = (paramCount == 0) ? null : evalExp(call.args.get(0));
+                    return LLVMBuildCall(builder, function, arg, paramCount, identifier(call.id, call.name));
+                }
+                int base = operandTop;
+                reserveOperands(paramCount);
+                operandTop += paramCount;
+                for ( int i = 0; i < paramCount; i++ ) {
+                    operands.put(base + i, this.evalExp(call.args.get(i)));
+                }
+                LLVMValueRef result = LLVMBuildCall(builder, function,
+                        operands.position(base), paramCount, call.name);
+                operands.position(0);
+                operandTop = base;
+                return result;
             }
-            else if ( ((SysYParser.UnaryExpContext) ctx).unaryOp().NOT() != null ) {
-                LLVMValueRef tmp_ = evalExp(((SysYParser.UnaryExpContext) ctx).exp());
-                tmp_ = LLVMBuildICmp(builder, LLVMIntNE, LLVMConstInt(i32Type, 0, 0), tmp_, "tmp_");
-                tmp_ = LLVMBuildXor(builder, tmp_, LLVMConstInt(LLVMInt1Type(), 1, 0), "tmp_");
-                tmp_ = LLVMBuildZExt(builder, tmp_, i32Type, "tmp_");
+            case UNARY: {
+                Ast.Unary unary = (Ast.Unary) exp;
+                if ( unary.op == Ast.Op.MINUS ) {
+                    return LLVMBuildNeg(builder, evalExp(unary.operand), tmpName);
+                }
+                LLVMValueRef tmp_ = evalExp(unary.operand);
+                tmp_ = LLVMBuildICmp(builder, LLVMIntNE, zero, tmp_, tmpName);
+                tmp_ = LLVMBuildXor(builder, tmp_, i1One, tmpName);
+                tmp_ = LLVMBuildZExt(builder, tmp_, i32Type, tmpName);
                 return tmp_;
             }
-        }
-        if ( ctx instanceof SysYParser.AddExpContext ) {
-            if ( ((SysYParser.AddExpContext) ctx).PLUS() != null ) {
-                return LLVMBuildAdd(builder,
-                        evalExp(((SysYParser.AddExpContext) ctx).exp(0)),
-                        evalExp(((SysYParser.AddExpContext) ctx).exp(1)),
-                        "tmp_");
-            }
-            if ( ((SysYParser.AddExpContext) ctx).MINUS() != null ) {
-                return LLVMBuildSub(builder,
-                        evalExp(((SysYParser.AddExpContext) ctx).exp(0)),
-                        evalExp(((SysYParser.AddExpContext) ctx).exp(1)),
-                        "tmp_");
+            case BINARY: {
+                Ast.Binary binary = (Ast.Binary) exp;
+                switch ( binary.op ) {
+                    case ADD:
+                        return LLVMBuildAdd(builder, evalExp(binary.left), evalExp(binary.right), tmpName);
+                    case SUB:
+                        return LLVMBuildSub(builder, evalExp(binary.left), evalExp(binary.right), tmpName);
+                    case MUL:
+                        return LLVMBuildMul(builder, evalExp(binary.left), evalExp(binary.right), tmpName);
+                    case DIV:
+                        return LLVMBuildSDiv(builder, evalExp(binary.left), evalExp(binary.right), tmpName);
+                    case MOD:
+                        return LLVMBuildSRem(builder, evalExp(binary.left), evalExp(binary.right), tmpName);
+                    default:
+                        return null;
+                }
             }
+            default:
+                return null;
         }
-        if ( ctx instanceof SysYParser.MulExpContext ) {
-            if ( ((SysYParser.MulExpContext) ctx).MUL() != null ) {
-                return LLVMBuildMul(builder,
-                        evalExp(((SysYParser.MulExpContext) ctx).exp(0)),
-                        evalExp(((SysYParser.MulExpContext) ctx).exp(1)),
-                        "tmp_");
-            }
-            else if ( ((SysYParser.MulExpContext) ctx).DIV() != null ) {
-                return LLVMBuildSDiv(builder,
-                        evalExp(((SysYParser.MulExpContext) ctx).exp(0)),
-                        evalExp(((SysYParser.MulExpContext) ctx).exp(1)),
-                        "tmp_");
+    }
+
+    public LLVMValueRef evalCond(Ast.Expr cond) {
+        if ( cond.kind != Ast.Kind.BINARY ) {
+            return evalExp(cond);
+        }
+        Ast.Binary binary = (Ast.Binary) cond;
+        switch ( binary.op ) {
+            case LT: return compare(LLVMIntSLT, binary);
+            case GT: return compare(LLVMIntSGT, binary);
+            case LE: return compare(LLVMIntSLE, binary);
+            case GE: return compare(LLVMIntSGE, binary);
+            case EQ: return compare(LLVMIntEQ, binary);
+            case NE: return compare(LLVMIntNE, binary);
+            case AND: {
+                // Init
+                LLVMBasicBlockRef
+                        leftBlock = LLVMAppendBasicBlockInContext(context, currentFunction, andLeftName),
+                        rightBlock = LLVMAppendBasicBlockInContext(context, currentFunction, andRightName),
+                        finallyBlock = LLVMAppendBasicBlockInContext(context, currentFunction, andFinallyName);
+                LLVMValueRef result = LLVMBuildAlloca(builder, i32Type, resultName);
+                LLVMBuildBr(builder, leftBlock);
+
+                // And Left
+                LLVMPositionBuilderAtEnd(builder, leftBlock);
+                LLVMValueRef leftVal = evalCond(binary.left);
+                LLVMBuildStore(builder, leftVal, result);
+                LLVMBuildCondBr(builder,
+                        LLVMBuildICmp(builder, LLVMIntNE, leftVal, zero, tmpName),
+                        rightBlock, finallyBlock);
+
+                // And Right
+                LLVMPositionBuilderAtEnd(builder, rightBlock);
+                LLVMValueRef rightVal = evalCond(binary.right);
+                LLVMBuildStore(builder, rightVal, result);
+                LLVMBuildBr(builder, finallyBlock);
+
+                // And Result
+                LLVMPositionBuilderAtEnd(builder, finallyBlock);
+                return LLVMBuildZExt(builder,
+                        LLVMBuildLoad(builder, result, tmpName),
+                        i32Type, tmpName);
             }
-            else if ( ((SysYParser.MulExpContext) ctx).MOD() != null ) {
-                return LLVMBuildSRem(builder,
-                        evalExp(((SysYParser.MulExpContext) ctx).exp(0)),
-                        evalExp(((SysYParser.MulExpContext) ctx).exp(1)),
-                        "tmp_");
+            case OR: {
+                // Init
+                LLVMBasicBlockRef
+                        leftBlock = LLVMAppendBasicBlockInContext(context, currentFunction, orLeftName),
+                        rightBlock = LLVMAppendBasicBlockInContext(context, currentFunction, orRightName),
+                        finallyBlock = LLVMAppendBasicBlockInContext(context, currentFunction, orFinallyName);
+                LLVMValueRef result = LLVMBuildAlloca(builder, i32Type, resultName);
+                LLVMBuildBr(builder, leftBlock);
+
+                // Or Left
+                LLVMPositionBuilderAtEnd(builder, leftBlock);
+                LLVMValueRef leftVal = evalCond(binary.left);
+                LLVMBuildStore(builder, leftVal, result);
+                LLVMBuildCondBr(builder,
+                        LLVMBuildICmp(builder, LLVMIntNE, leftVal, zero, tmpName),
+                        finallyBlock, rightBlock);
+
+                // Or Right
+                LLVMPositionBuilderAtEnd(builder, rightBlock);
+                LLVMValueRef rightVal = evalCond(binary.right);
+                LLVMBuildStore(builder, rightVal, result);
+                LLVMBuildBr(builder, finallyBlock);
+
+                // Or Result
+                LLVMPositionBuilderAtEnd(builder, finallyBlock);
+                return LLVMBuildZExt(builder,
+                        LLVMBuildLoad(builder, result, tmpName),
+                        i32Type, tmpName);
             }
+            default:
+                return evalExp(cond);
         }
-        return null;
     }
 
-    public LLVMValueRef evalCond(SysYParser.CondContext ctx) {
-        if ( ctx instanceof SysYParser.CondExpContext ) {
-            return evalExp(((SysYParser.CondExpContext) ctx).exp());
-        }
-        if ( ctx instanceof SysYParser.RelationExpContext ) {
-            SysYParser.RelationExpContext ctx_ = ((SysYParser.RelationExpContext) ctx);
-            return LLVMBuildZExt(builder,
-                    LLVMBuildICmp(builder,
-                            (ctx_.NEQ() != null) ? LLVMIntNE : LLVMIntEQ,
-                            evalCond(ctx_.cond(0)), evalCond(ctx_.cond(1)), "tmp_"),
-                    i32Type, "tmp_");
-        }
-        if ( ctx instanceof SysYParser.CompareExpContext ) {
-            SysYParser.CompareExpContext ctx_ = ((SysYParser.CompareExpContext) ctx);
-            return LLVMBuildZExt(builder,
-                    LLVMBuildICmp(builder,
-                            ((ctx_.LT() != null) ? LLVMIntSLT
-                                    : ((ctx_.GT() != null) ? LLVMIntSGT
-                                    : ((ctx_.LE() != null) ? LLVMIntSLE
-                                    : LLVMIntSGE))),
-                            evalCond(ctx_.cond(0)), evalCond(ctx_.cond(1)), "tmp_"),
-                    i32Type, "tmp_");
-        }
-        if ( ctx instanceof SysYParser.AndExpContext ) {
-            // Init
-            SysYParser.AndExpContext ctx_ = ((SysYParser.AndExpContext) ctx);
-            LLVMBasicBlockRef
-                    leftBlock = LLVMAppendBasicBlock(currentFunction, "andLeft"),
-                    rightBlock = LLVMAppendBasicBlock(currentFunction, "andRight"),
-                    finallyBlock = LLVMAppendBasicBlock(currentFunction, "andFinally");
-            LLVMValueRef result = LLVMBuildAlloca(builder, i32Type, "result");
-            LLVMBuildBr(builder, leftBlock);
-
-            // And Left
-            LLVMPositionBuilderAtEnd(builder, leftBlock);
-            LLVMValueRef leftVal = evalCond(ctx_.cond(0));
-            LLVMBuildStore(builder, leftVal, result);
-            LLVMBuildCondBr(builder,
-                    LLVMBuildICmp(builder, LLVMIntNE, leftVal, zero, "tmp_"),
-                    rightBlock, finallyBlock);
-
-            // And Right
-            LLVMPositionBuilderAtEnd(builder, rightBlock);
-            LLVMValueRef rightVal = evalCond(ctx_.cond(1));
-            LLVMBuildStore(builder, rightVal, result);
-            LLVMBuildBr(builder, finallyBlock);
-
-            // And Result
-            LLVMPositionBuilderAtEnd(builder, finallyBlock);
-            return LLVMBuildZExt(builder,
-                    LLVMBuildLoad(builder, result, "tmp_"),
-                    i32Type, "tmp_");
-        }
-        if ( ctx instanceof SysYParser.OrExpContext ) {
-            // Init
-            SysYParser.OrExpContext ctx_ = ((SysYParser.OrExpContext) ctx);
-            LLVMBasicBlockRef
-                    leftBlock = LLVMAppendBasicBlock(currentFunction, "orLeft"),
-                    rightBlock = LLVMAppendBasicBlock(currentFunction, "orRight"),
-                    finallyBlock = LLVMAppendBasicBlock(currentFunction, "orFinally");
-            LLVMValueRef result = LLVMBuildAlloca(builder, i32Type, "result");
-            LLVMBuildBr(builder, leftBlock);
-
-            // Or Left
-            LLVMPositionBuilderAtEnd(builder, leftBlock);
-            LLVMValueRef leftVal = evalCond(ctx_.cond(0));
-            LLVMBuildStore(builder, leftVal, result);
-            LLVMBuildCondBr(builder,
-                    LLVMBuildICmp(builder, LLVMIntNE, leftVal, zero, "tmp_"),
-                    finallyBlock, rightBlock);
-
-            // Or Right
-            LLVMPositionBuilderAtEnd(builder, rightBlock);
-            LLVMValueRef rightVal = evalCond(ctx_.cond(1));
-            LLVMBuildStore(builder, rightVal, result);
-            LLVMBuildBr(builder, finallyBlock);
-
-            // Or Result
-            LLVMPositionBuilderAtEnd(builder, finallyBlock);
-            return LLVMBuildZExt(builder,
-                    LLVMBuildLoad(builder, result, "tmp_"),
-                    i32Type, "tmp_");
-        }
-        return zero;
+    private LLVMValueRef compare(int predicate, Ast.Binary binary) {
+        return LLVMBuildZExt(builder,
+                LLVMBuildICmp(builder, predicate,
+                        evalCond(binary.left), evalCond(binary.right), tmpName),
+                i32Type, tmpName);
     }
 
 }
@@ -0,0 +1,157 @@
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNodeImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ *   Parses an already lexed source on all cores. A pre-scan cuts the tokens
+ *   between top-level funcDefs and decls by brace depth, runs of those items
+ *   are parsed as compUnits of their own, each by its own SysYParser, and
+ *   their items are put back under one program in source order. The tokens
+ *   are the lexer's own, so lines and token indexes are those of the file.
+ *
+ *   Only clean parses come back: when the tokens can't be cut or any chunk
+ *   has a syntax error, parse() returns null and the caller parses the whole
+ *   stream serially, which reports the errors as usual.
+ */
+public class ParallelParser {
+    // Fewer tokens than this are not worth a parser of their own.
+    static final int MIN_CHUNK = 8192;
+
+    /*
+     *   tokens must end with EOF, as CommonTokenStream.getTokens() does once
+     *   filled. Their token indexes are restored before returning.
+     */
+    public static SysYParser.ProgramContext parse(List<Token> tokens) {
+        int eof = tokens.size() - 1;
+        if ( eof < 2 * MIN_CHUNK || tokens.get(eof).getType() != Token.EOF ) {
+            return null;
+        }
+        List<Integer> cuts = split(tokens, eof);
+        if ( cuts == null || cuts.size() < 3 ) {
+            return null;
+        }
+
+        List<ChunkTask> tasks = new ArrayList<>();
+        for ( int i = 0; i + 1 < cuts.size(); i++ ) {
+            tasks.add(new ChunkTask(tokens, cuts.get(i), cuts.get(i + 1)));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        SysYParser.ProgramContext program = new SysYParser.ProgramContext(null, -1);
+        SysYParser.CompUnitContext compUnit = new SysYParser.CompUnitContext(program, -1);
+        for ( ChunkTask task : tasks ) {
+            SysYParser.CompUnitContext chunk = task.join();
+            if ( chunk == null ) {
+                return null;
+            }
+            for ( ParseTree child : chunk.children ) {
+                if ( child instanceof ParserRuleContext ) {
+                    ((ParserRuleContext) child).setParent(compUnit);
+                    compUnit.addAnyChild(child);
+                }
+            }
+        }
+        TerminalNodeImpl end = new TerminalNodeImpl(tokens.get(eof));
+        end.setParent(compUnit);
+        compUnit.addAnyChild(end);
+        compUnit.start = program.start = tokens.get(0);
+        compUnit.stop = program.stop = tokens.get(eof);
+        program.addAnyChild(compUnit);
+        return program;
+    }
+
+    /*
+     *   Token indexes at which chunks start, followed by eof. A decl ends at
+     *   the first ';' outside braces, a funcDef at the '}' closing its body.
+     *   Returns null if the last item runs into EOF.
+     */
+    private static List<Integer> split(List<Token> tokens, int eof) {
+        int target = Math.max(MIN_CHUNK, eof / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+        int start = 0;
+        for ( int i = 0; i < eof; ) {
+            boolean funcDef = isFuncDef(tokens, i, eof);
+            int depth = 0;
+            for ( ; i < eof; i++ ) {
+                int type = tokens.get(i).getType();
+                if ( type == SysYParser.L_BRACE ) {
+                    depth++;
+                }
+                else if ( type == SysYParser.R_BRACE ) {
+                    if ( --depth < 0 ) {
+                        return null;
+                    }
+                    if ( depth == 0 && funcDef ) {
+                        break;
+                    }
+                }
+                else if ( type == SysYParser.SEMICOLON && depth == 0 && !funcDef ) {
+                    break;
+                }
+            }
+            if ( i == eof ) {
+                return null;
+            }
+            i++;
+            if ( i - start >= target && eof - i >= MIN_CHUNK ) {
+                cuts.add(i);
+                start = i;
+            }
+        }
+        cuts.add(eof);
+        return cuts;
+    }
+
+    // funcDef : funcType funcName L_PAREN ..., and funcType is VOID or INT.
+    private static boolean isFuncDef(List<Token> tokens, int i, int eof) {
+        return tokens.get(i).getType() == SysYParser.VOID
+                || (tokens.get(i).getType() == SysYParser.INT && i + 2 < eof
+                    && tokens.get(i + 2).getType() == SysYParser.L_PAREN);
+    }
+
+    private static class ChunkTask extends RecursiveTask<SysYParser.CompUnitContext> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Token> tokens;
+        private final int from;
+        private final int to;
+
+        ChunkTask(List<Token> tokens, int from, int to) {
+            this.tokens = tokens;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected SysYParser.CompUnitContext compute() {
+            SysYParser parser = new SysYParser(new CommonTokenStream(new ListTokenSource(tokens.subList(from, to))));
+            PrecedenceClimber.install(parser);
+            parser.removeErrorListeners();
+            parser.setErrorHandler(new BailErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            try {
+                return parser.compUnit();
+            }
+            catch (ParseCancellationException e) {
+                return null;
+            }
+            finally {
+                // The chunk's stream renumbered its tokens from 0.
+                for ( int i = from; i < to; i++ ) {
+                    if ( tokens.get(i) instanceof WritableToken ) {
+                        ((WritableToken) tokens.get(i)).setTokenIndex(i);
+                    }
+                }
+            }
+        }
+    }
+}
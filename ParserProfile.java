@@ -0,0 +1,141 @@
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+import org.antlr.v4.runtime.atn.DecisionState;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/*
+ *   What ANTLR's profiling simulator saw of each decision in SysYParser,
+ *   hottest first: how often it was predicted, how long that took, how far
+ *   SLL and LL had to look ahead, and how often SLL met a conflict and fell
+ *   back to LL. Decisions are listed with their rule and ATN state, and
+ *   summed up per rule as well.
+ *
+ *   The parser must be attached before it parses and collected after.
+ */
+public class ParserProfile {
+    private String[] ruleNames = new String[0];
+    private int[] ruleOf = new int[0];
+    private int[] stateOf = new int[0];
+    private DecisionInfo[] decisions = new DecisionInfo[0];
+    private boolean retriedInLL = false;
+    private boolean cacheHit = false;
+
+    public void attach(Parser parser) {
+        // Installs a ProfilingATNSimulator, set the prediction mode after this.
+        parser.setProfile(true);
+    }
+
+    public void collect(Parser parser) {
+        ruleNames = parser.getRuleNames();
+        decisions = parser.getParseInfo().getDecisionInfo();
+        ruleOf = new int[decisions.length];
+        stateOf = new int[decisions.length];
+        for ( int i = 0; i < decisions.length; i++ ) {
+            DecisionState state = parser.getATN().decisionToState.get(i);
+            ruleOf[i] = state.ruleIndex;
+            stateOf[i] = state.stateNumber;
+        }
+    }
+
+    // The whole input was parsed a second time in full LL after SLL bailed.
+    public void retriedInLL() {
+        retriedInLL = true;
+    }
+
+    // Nothing was parsed, the compile was a cache hit.
+    public void cacheHit() {
+        cacheHit = true;
+    }
+
+    /*
+        REPORT
+     */
+    public String toJson(String source) {
+        List<DecisionInfo> hot = new ArrayList<>();
+        long[][] rules = new long[ruleNames.length][4];
+        for ( DecisionInfo info : decisions ) {
+            if ( info.invocations == 0 ) {
+                continue;
+            }
+            hot.add(info);
+            long[] rule = rules[ruleOf[info.decision]];
+            rule[0]++;
+            rule[1] += info.invocations;
+            rule[2] += info.timeInPrediction;
+            rule[3] += info.LL_Fallback;
+        }
+        hot.sort((a, b) -> Long.compare(b.timeInPrediction, a.timeInPrediction));
+        Integer[] byTime = new Integer[ruleNames.length];
+        for ( int i = 0; i < byTime.length; i++ ) {
+            byTime[i] = i;
+        }
+        Arrays.sort(byTime, (a, b) -> Long.compare(rules[b][2], rules[a][2]));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"source\":\"").append(PhaseTimer.escape(source)).append('"');
+        sb.append(",\"retried_in_ll\":").append(retriedInLL);
+        sb.append(",\"cache_hit\":").append(cacheHit);
+        sb.append(",\"rules\":[");
+        boolean first = true;
+        for ( int i : byTime ) {
+            if ( rules[i][0] == 0 ) {
+                continue;
+            }
+            sb.append(first ? "" : ",");
+            sb.append("{\"rule\":\"").append(ruleNames[i]).append('"')
+                    .append(",\"decisions\":").append(rules[i][0])
+                    .append(",\"invocations\":").append(rules[i][1])
+                    .append(",\"time_ns\":").append(rules[i][2])
+                    .append(",\"ll_fallbacks\":").append(rules[i][3])
+                    .append('}');
+            first = false;
+        }
+        sb.append("],\"decisions\":[");
+        first = true;
+        for ( DecisionInfo info : hot ) {
+            sb.append(first ? "" : ",");
+            sb.append("{\"decision\":").append(info.decision)
+                    .append(",\"rule\":\"").append(ruleNames[ruleOf[info.decision]]).append('"')
+                    .append(",\"state\":").append(stateOf[info.decision])
+                    .append(",\"invocations\":").append(info.invocations)
+                    .append(",\"time_ns\":").append(info.timeInPrediction)
+                    .append(",\"sll_lookahead_total\":").append(info.SLL_TotalLook)
+                    .append(",\"sll_lookahead_max\":").append(info.SLL_MaxLook)
+                    .append(",\"sll_atn_transitions\":").append(info.SLL_ATNTransitions)
+                    .append(",\"ll_fallbacks\":").append(info.LL_Fallback)
+                    .append(",\"ll_lookahead_total\":").append(info.LL_TotalLook)
+                    .append(",\"ll_lookahead_max\":").append(info.LL_MaxLook)
+                    .append(",\"ll_atn_transitions\":").append(info.LL_ATNTransitions)
+                    .append(",\"ambiguities\":").append(info.ambiguities.size())
+                    .append(",\"context_sensitivities\":").append(info.contextSensitivities.size())
+                    .append(",\"errors\":").append(info.errors.size())
+                    .append('}');
+            first = false;
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /*
+     *   Writes the report to the given file, or to stderr if dest is null,
+     *   as one line of JSON.
+     */
+    public void report(String source, String dest) {
+        String json = toJson(source);
+        if ( dest == null ) {
+            System.err.println(json);
+            return;
+        }
+        try {
+            Files.write(Paths.get(dest), (json + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            System.err.println("Cannot write parser profile " + dest + ": " + e.getMessage());
+        }
+    }
+}
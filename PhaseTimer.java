@@ -0,0 +1,151 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ *   Wall time, CPU time and allocated bytes per compiler stage, summed over
+ *   every time the stage ran. Code generation runs one task per function, so
+ *   the lifetime, regalloc and isel stages add up the work of all tasks and
+ *   their wall times may sum to more than the elapsed time.
+ *
+ *   A disabled timer (the default) costs one branch per start/stop.
+ */
+public class PhaseTimer {
+    public static final String CACHE = "cache";
+    public static final String LEX = "lex";
+    public static final String PARSE = "parse";
+    public static final String ERRORS = "errors";
+    public static final String CHECK = "check";
+    public static final String AST = "ast";
+    public static final String IR_GEN = "irgen";
+    public static final String IR_PRINT = "irprint";
+    public static final String LIFETIME = "lifetime";
+    public static final String REGALLOC = "regalloc";
+    public static final String ISEL = "isel";
+    public static final String OUTPUT = "output";
+
+    public static final PhaseTimer DISABLED = new PhaseTimer(false);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final boolean enabled;
+    private final long created = System.nanoTime();
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+
+    PhaseTimer(boolean enabled) {
+        this.enabled = enabled;
+        for ( String phase : new String[] { CACHE, LEX, PARSE, ERRORS, CHECK, AST, IR_GEN, IR_PRINT, LIFETIME, REGALLOC, ISEL, OUTPUT } ) {
+            phases.put(phase, new long[4]);
+        }
+    }
+
+    /*
+     *   Snapshot of the calling thread, to be handed back to stop() on the
+     *   same thread.
+     */
+    public long[] start() {
+        if ( !enabled ) {
+            return null;
+        }
+        return new long[] { System.nanoTime(), cpuTime(), allocatedBytes() };
+    }
+
+    public void stop(String phase, long[] start) {
+        if ( start == null ) {
+            return;
+        }
+        long wall = System.nanoTime() - start[0];
+        long cpu = cpuTime() - start[1];
+        long allocated = allocatedBytes() - start[2];
+        synchronized ( phases ) {
+            long[] total = phases.get(phase);
+            total[0] += wall;
+            total[1] += cpu;
+            total[2] += allocated;
+            total[3]++;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long allocatedBytes() {
+        if ( THREADS instanceof com.sun.management.ThreadMXBean ) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if ( threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled() ) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /*
+        REPORT
+     */
+    public String toJson(String source) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"source\":\"").append(escape(source)).append('"');
+        sb.append(",\"elapsed_ns\":").append(System.nanoTime() - created);
+        sb.append(",\"phases\":[");
+        synchronized ( phases ) {
+            boolean first = true;
+            for ( Map.Entry<String, long[]> entry : phases.entrySet() ) {
+                long[] total = entry.getValue();
+                sb.append(first ? "" : ",");
+                sb.append("{\"name\":\"").append(entry.getKey()).append('"')
+                        .append(",\"count\":").append(total[3])
+                        .append(",\"wall_ns\":").append(total[0])
+                        .append(",\"cpu_ns\":").append(total[1])
+                        .append(",\"alloc_bytes\":").append(total[2])
+                        .append('}');
+                first = false;
+            }
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /*
+     *   Writes the report to the given file, or to stderr if dest is null,
+     *   as one line of JSON.
+     */
+    public void report(String source, String dest) {
+        String json = toJson(source);
+        if ( dest == null ) {
+            System.err.println(json);
+            return;
+        }
+        try {
+            Files.write(Paths.get(dest), (json + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            System.err.println("Cannot write timing report " + dest + ": " + e.getMessage());
+        }
+    }
+
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for ( char c : s.toCharArray() ) {
+            if ( c == '"' || c == '\\' ) {
+                sb.append('\\').append(c);
+            }
+            else if ( c < 0x20 ) {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
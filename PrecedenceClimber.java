@@ -0,0 +1,142 @@
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.*;
+
+/*
+ *   Predicts the decisions of the left-recursive exp and cond rules by
+ *   precedence climbing on the next token or two, instead of adaptive
+ *   prediction at every operand and operator. The generated rule methods
+ *   still do the parsing and build the contexts, so the trees are the same
+ *   MulExp/AddExp/CompareExp/... nests; only the choice of alternative is
+ *   made here, from the precedence levels ANTLR gave the grammar:
+ *
+ *       exp:   * / %  2    + -  1
+ *       cond:  < > <= >=  4    == !=  3    &&  2    ||  1
+ *
+ *   An operator continues the current invocation when its level is at
+ *   least the precedence the invocation was entered with, as precpred()
+ *   checks. Anything a token or two can't settle, a '(' opening a cond or
+ *   a token no operand starts with, goes to ANTLR as before, so syntax
+ *   errors are reported just the same.
+ */
+public class PrecedenceClimber extends ParserATNSimulator {
+    // Decisions in the generated SysYParser, checked against its ATN below.
+    private static final int EXP_OPERAND = 25;
+    private static final int EXP_OPERATOR = 26;
+    private static final int EXP_LOOP = 27;
+    private static final int COND_OPERAND = 28;
+    private static final int COND_OPERATOR = 29;
+    private static final int COND_LOOP = 30;
+
+    private static final boolean GENERATED_MATCHES = matches(SysYParser._ATN);
+
+    /*
+     *   Replaces the parser's simulator. Set the prediction mode after this.
+     *   A parser generated from a changed grammar is left alone.
+     */
+    public static void install(SysYParser parser) {
+        if ( GENERATED_MATCHES ) {
+            parser.setInterpreter(new PrecedenceClimber(parser));
+        }
+    }
+
+    private PrecedenceClimber(SysYParser parser) {
+        super(parser, SysYParser._ATN, SysYParser._decisionToDFA, SysYParser._sharedContextCache);
+    }
+
+    @Override
+    public int adaptivePredict(TokenStream input, int decision, ParserRuleContext outerContext) {
+        int alt = predict(input, decision);
+        return (alt != ATN.INVALID_ALT_NUMBER) ? alt : super.adaptivePredict(input, decision, outerContext);
+    }
+
+    private int predict(TokenStream input, int decision) {
+        int next = input.LA(1);
+        switch ( decision ) {
+            case EXP_OPERAND:
+                // parenExp, lValExp, numExp, funcCallExp, unaryExp
+                if ( next == SysYParser.IDENT ) {
+                    return (input.LA(2) == SysYParser.L_PAREN) ? 4 : 2;
+                }
+                return (next == SysYParser.L_PAREN) ? 1
+                        : ((next == SysYParser.INTEGR_CONST) ? 3
+                        : (isUnaryOp(next) ? 5 : ATN.INVALID_ALT_NUMBER));
+            case EXP_OPERATOR:
+                // mulExp, addExp
+                return (expLevel(next) == 0) ? ATN.INVALID_ALT_NUMBER : 3 - expLevel(next);
+            case EXP_LOOP:
+                return climb(expLevel(next));
+            case COND_OPERAND:
+                // condExp, parenCond
+                return (next == SysYParser.IDENT || next == SysYParser.INTEGR_CONST || isUnaryOp(next))
+                        ? 1 : ATN.INVALID_ALT_NUMBER;
+            case COND_OPERATOR:
+                // compareExp, relationExp, andExp, orExp
+                return (condLevel(next) == 0) ? ATN.INVALID_ALT_NUMBER : 5 - condLevel(next);
+            case COND_LOOP:
+                return climb(condLevel(next));
+            default:
+                return ATN.INVALID_ALT_NUMBER;
+        }
+    }
+
+    // Loops: alt 1 applies the operator, alt 2 leaves it to an outer invocation.
+    private int climb(int level) {
+        return (level > 0 && level >= parser.getPrecedence()) ? 1 : 2;
+    }
+
+    private static boolean isUnaryOp(int type) {
+        return type == SysYParser.PLUS || type == SysYParser.MINUS || type == SysYParser.NOT;
+    }
+
+    private static int expLevel(int type) {
+        switch ( type ) {
+            case SysYParser.MUL:
+            case SysYParser.DIV:
+            case SysYParser.MOD:
+                return 2;
+            case SysYParser.PLUS:
+            case SysYParser.MINUS:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static int condLevel(int type) {
+        switch ( type ) {
+            case SysYParser.LT:
+            case SysYParser.GT:
+            case SysYParser.LE:
+            case SysYParser.GE:
+                return 4;
+            case SysYParser.EQ:
+            case SysYParser.NEQ:
+                return 3;
+            case SysYParser.AND:
+                return 2;
+            case SysYParser.OR:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean matches(ATN atn) {
+        return is(atn, EXP_OPERAND, SysYParser.RULE_exp, BasicBlockStartState.class, 5)
+                && is(atn, EXP_OPERATOR, SysYParser.RULE_exp, StarBlockStartState.class, 2)
+                && is(atn, EXP_LOOP, SysYParser.RULE_exp, StarLoopEntryState.class, 2)
+                && is(atn, COND_OPERAND, SysYParser.RULE_cond, BasicBlockStartState.class, 2)
+                && is(atn, COND_OPERATOR, SysYParser.RULE_cond, StarBlockStartState.class, 4)
+                && is(atn, COND_LOOP, SysYParser.RULE_cond, StarLoopEntryState.class, 2);
+    }
+
+    private static boolean is(ATN atn, int decision, int rule, Class<? extends DecisionState> type, int alts) {
+        if ( decision >= atn.getNumberOfDecisions() ) {
+            return false;
+        }
+        DecisionState state = atn.getDecisionState(decision);
+        return state.ruleIndex == rule && state.getClass() == type && state.getNumberOfTransitions() == alts
+                && (!(state instanceof StarLoopEntryState) || ((StarLoopEntryState) state).isPrecedenceDecision);
+    }
+}
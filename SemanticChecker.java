@@ -0,0 +1,436 @@
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ *   LAB 3 type checking of a parsed program, reported as
+ *   "Error type N at Line L: msg":
+ *
+ *       1  undefined variable            7  return type mismatch
+ *       2  undefined function            8  arguments don't fit the function
+ *       3  redefined variable            9  subscript on a non-array
+ *       4  redefined function           10  call of a non-function
+ *       5  assignment type mismatch     11  assignment to a function
+ *       6  operand type mismatch        12  assignment to a constant
+ *
+ *   An expression with an error has no type, and nothing that uses it is
+ *   reported again. The body of a redefined function is not checked.
+ *
+ *   The top-level items are walked once in order to define the globals and
+ *   check their initializers. A function body sees only the globals before
+ *   it and then no longer changes them, so every body is checked on the
+ *   common pool against that frozen table. The errors of each item are kept
+ *   apart and joined in item order, so they come out in source order.
+ */
+public class SemanticChecker {
+    private static final Type INT = new Type(0, null, null);
+    private static final Type CONST_INT = new Type(0, null, null, true);
+    private static final Type VOID = new Type(-1, null, null);
+    private static final int NONE = -1;
+
+    // Global definitions in order, and where each name is. A redefinition
+    // is an error and never replaces the first.
+    private final List<Type> globalTypes = new ArrayList<>();
+    private final Map<String, Integer> globalIndex = new HashMap<>();
+
+    public static List<String> check(SysYParser.ProgramContext program) {
+        return new SemanticChecker().checkProgram(program.compUnit());
+    }
+
+    private List<String> checkProgram(SysYParser.CompUnitContext compUnit) {
+        List<List<String>> itemErrors = new ArrayList<>();
+        List<FunctionTask> tasks = new ArrayList<>();
+        for ( ParseTree child : compUnit.children ) {
+            if ( child instanceof SysYParser.FuncDefContext ) {
+                SysYParser.FuncDefContext funcDef = (SysYParser.FuncDefContext) child;
+                List<String> errors = new ArrayList<>();
+                itemErrors.add(errors);
+                if ( defineFunction(funcDef, errors) ) {
+                    tasks.add(new FunctionTask(funcDef, globalTypes.size(), errors));
+                }
+            }
+            else if ( child instanceof SysYParser.DeclContext ) {
+                List<String> errors = new ArrayList<>();
+                itemErrors.add(errors);
+                new FunctionTask(null, globalTypes.size(), errors).checkDecl((SysYParser.DeclContext) child, true);
+            }
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        List<String> errors = new ArrayList<>();
+        for ( List<String> item : itemErrors ) {
+            errors.addAll(item);
+        }
+        return errors;
+    }
+
+    /*
+        GLOBALS
+     */
+    private boolean defineFunction(SysYParser.FuncDefContext funcDef, List<String> errors) {
+        Token name = funcDef.funcName().IDENT().getSymbol();
+        if ( globalIndex.containsKey(name.getText()) ) {
+            report(errors, 4, name, "Redefined function: " + name.getText());
+            return false;
+        }
+        List<Type> params = new ArrayList<>();
+        if ( funcDef.funcFParams() != null ) {
+            for ( SysYParser.FuncFParamContext param : funcDef.funcFParams().funcFParam() ) {
+                params.add(paramType(param));
+            }
+        }
+        defineGlobal(name.getText(), new Type(0, (funcDef.funcType().INT() != null) ? INT : VOID, params));
+        return true;
+    }
+
+    private void defineGlobal(String name, Type type) {
+        globalIndex.put(name, globalTypes.size());
+        globalTypes.add(type);
+    }
+
+    // The global named name among the first visible ones, or null.
+    private Type resolveGlobal(String name, int visible) {
+        int n = globalIndex.getOrDefault(name, NONE);
+        return (n == NONE || n >= visible) ? null : globalTypes.get(n);
+    }
+
+    private static Type paramType(SysYParser.FuncFParamContext param) {
+        // a[] is one dimension, a[][n] two, and so on.
+        int dims = param.L_BRACKT().size();
+        return (dims == 0) ? INT : new Type(dims, null, null);
+    }
+
+    private static void report(List<String> errors, int type, Token at, String message) {
+        errors.add("Error type " + type + " at Line " + at.getLine() + ": " + message);
+    }
+
+    /*
+        FUNCTIONS
+     */
+    private class FunctionTask extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final SysYParser.FuncDefContext funcDef;
+        private int visibleGlobals;
+        private final List<String> errors;
+        private final List<Map<String, Type>> scopes = new ArrayList<>();
+        private Type returns = VOID;
+
+        FunctionTask(SysYParser.FuncDefContext funcDef, int visibleGlobals, List<String> errors) {
+            this.funcDef = funcDef;
+            this.visibleGlobals = visibleGlobals;
+            this.errors = errors;
+        }
+
+        @Override
+        protected Void compute() {
+            returns = (funcDef.funcType().INT() != null) ? INT : VOID;
+            scopes.add(new HashMap<>());
+            if ( funcDef.funcFParams() != null ) {
+                for ( SysYParser.FuncFParamContext param : funcDef.funcFParams().funcFParam() ) {
+                    for ( SysYParser.ExpContext exp : param.exp() ) {
+                        checkExp(exp);
+                    }
+                    defineLocal(param.IDENT().getSymbol(), paramType(param));
+                }
+            }
+            checkBlock(funcDef.block());
+            scopes.remove(scopes.size() - 1);
+            return null;
+        }
+
+        private void defineLocal(Token name, Type type) {
+            Map<String, Type> scope = scopes.get(scopes.size() - 1);
+            if ( scope.containsKey(name.getText()) ) {
+                report(errors, 3, name, "Redefined variable: " + name.getText());
+                return;
+            }
+            scope.put(name.getText(), type);
+        }
+
+        private Type resolve(String name) {
+            for ( int i = scopes.size() - 1; i >= 0; i-- ) {
+                Type type = scopes.get(i).get(name);
+                if ( type != null ) {
+                    return type;
+                }
+            }
+            return resolveGlobal(name, visibleGlobals);
+        }
+
+        void checkDecl(SysYParser.DeclContext decl, boolean global) {
+            if ( decl.constDecl() != null ) {
+                for ( SysYParser.ConstDefContext def : decl.constDecl().constDef() ) {
+                    for ( SysYParser.ConstExpContext dim : def.constExp() ) {
+                        checkExp(dim.exp());
+                    }
+                    int dims = def.constExp().size();
+                    checkInit(dims, def.constInitVal().constExp() != null ? def.constInitVal().constExp().exp() : null,
+                            def.constInitVal());
+                    define(def.IDENT().getSymbol(), (dims == 0) ? CONST_INT : new Type(dims, null, null, true), global);
+                }
+            }
+            else {
+                for ( SysYParser.VarDefContext def : decl.varDecl().varDef() ) {
+                    for ( SysYParser.ConstExpContext dim : def.constExp() ) {
+                        checkExp(dim.exp());
+                    }
+                    int dims = def.constExp().size();
+                    if ( def.initVal() != null ) {
+                        checkInit(dims, def.initVal().exp(), def.initVal());
+                    }
+                    define(def.IDENT().getSymbol(), (dims == 0) ? INT : new Type(dims, null, null), global);
+                }
+            }
+        }
+
+        // exp is the initializer's expression, if it is not a {...} list.
+        private void checkInit(int dims, SysYParser.ExpContext exp, ParserRuleContext init) {
+            if ( exp != null ) {
+                Type type = checkExp(exp);
+                if ( type != null && !(dims == 0 && type.isInt()) ) {
+                    report(errors, 5, exp.getStart(), "Type mismatched for assignment.");
+                }
+                return;
+            }
+            for ( ParseTree child : init.children ) {
+                if ( child instanceof SysYParser.InitValContext ) {
+                    SysYParser.InitValContext initVal = (SysYParser.InitValContext) child;
+                    checkInit(0, initVal.exp(), initVal);
+                }
+                else if ( child instanceof SysYParser.ConstInitValContext ) {
+                    SysYParser.ConstInitValContext initVal = (SysYParser.ConstInitValContext) child;
+                    checkInit(0, initVal.constExp() != null ? initVal.constExp().exp() : null, initVal);
+                }
+            }
+        }
+
+        private void define(Token name, Type type, boolean global) {
+            if ( !global ) {
+                defineLocal(name, type);
+            }
+            else if ( globalIndex.containsKey(name.getText()) ) {
+                report(errors, 3, name, "Redefined variable: " + name.getText());
+            }
+            else {
+                defineGlobal(name.getText(), type);
+                // The next initializer of the same decl sees it.
+                visibleGlobals = globalTypes.size();
+            }
+        }
+
+        private void checkBlock(SysYParser.BlockContext block) {
+            scopes.add(new HashMap<>());
+            for ( SysYParser.BlockItemContext item : block.blockItem() ) {
+                if ( item.decl() != null ) {
+                    checkDecl(item.decl(), false);
+                }
+                else {
+                    checkStmt(item.stmt());
+                }
+            }
+            scopes.remove(scopes.size() - 1);
+        }
+
+        private void checkStmt(SysYParser.StmtContext stmt) {
+            if ( stmt.assignment() != null ) {
+                SysYParser.LValContext lVal = stmt.assignment().lVal();
+                Type target = checkLVal(lVal);
+                Type value = checkExp(stmt.assignment().exp());
+                if ( target != null && target.isFunction() ) {
+                    report(errors, 11, lVal.getStart(), "The left-hand side of an assignment must be a variable.");
+                }
+                else if ( target != null && target.isConst ) {
+                    report(errors, 12, lVal.getStart(), "Cannot assign to constant: " + lVal.IDENT().getText());
+                }
+                else if ( target != null && value != null && !target.sameAs(value) ) {
+                    report(errors, 5, lVal.getStart(), "Type mismatched for assignment.");
+                }
+            }
+            else if ( stmt.possibleExp() != null ) {
+                if ( stmt.possibleExp().exp() != null ) {
+                    checkExp(stmt.possibleExp().exp());
+                }
+            }
+            else if ( stmt.blockStmt() != null ) {
+                checkBlock(stmt.blockStmt().block());
+            }
+            else if ( stmt.ifStmt() != null ) {
+                checkCond(stmt.ifStmt().cond());
+                for ( SysYParser.StmtContext branch : stmt.ifStmt().stmt() ) {
+                    checkStmt(branch);
+                }
+            }
+            else if ( stmt.whileStmt() != null ) {
+                checkCond(stmt.whileStmt().cond());
+                checkStmt(stmt.whileStmt().stmt());
+            }
+            else if ( stmt.returnStmt() != null ) {
+                SysYParser.ReturnStmtContext ret = stmt.returnStmt();
+                Type value = (ret.exp() != null) ? checkExp(ret.exp()) : VOID;
+                if ( value != null && !returns.sameAs(value) ) {
+                    report(errors, 7, ret.getStart(), "Type mismatched for return.");
+                }
+            }
+        }
+
+        /*
+            EXPRESSIONS
+         */
+        // The type of exp, or null if it has an error.
+        private Type checkExp(SysYParser.ExpContext exp) {
+            if ( exp instanceof SysYParser.ParenExpContext ) {
+                return checkExp(((SysYParser.ParenExpContext) exp).exp());
+            }
+            if ( exp instanceof SysYParser.LValExpContext ) {
+                return checkLVal(((SysYParser.LValExpContext) exp).lVal());
+            }
+            if ( exp instanceof SysYParser.NumExpContext ) {
+                return INT;
+            }
+            if ( exp instanceof SysYParser.FuncCallExpContext ) {
+                return checkCall((SysYParser.FuncCallExpContext) exp);
+            }
+            if ( exp instanceof SysYParser.UnaryExpContext ) {
+                return operands(exp, checkExp(((SysYParser.UnaryExpContext) exp).exp()), INT);
+            }
+            if ( exp instanceof SysYParser.MulExpContext ) {
+                SysYParser.MulExpContext mul = (SysYParser.MulExpContext) exp;
+                return operands(mul, checkExp(mul.exp(0)), checkExp(mul.exp(1)));
+            }
+            if ( exp instanceof SysYParser.AddExpContext ) {
+                SysYParser.AddExpContext add = (SysYParser.AddExpContext) exp;
+                return operands(add, checkExp(add.exp(0)), checkExp(add.exp(1)));
+            }
+            return null;
+        }
+
+        private Type checkCond(SysYParser.CondContext cond) {
+            if ( cond instanceof SysYParser.CondExpContext ) {
+                return checkExp(((SysYParser.CondExpContext) cond).exp());
+            }
+            if ( cond instanceof SysYParser.ParenCondContext ) {
+                return checkCond(((SysYParser.ParenCondContext) cond).cond());
+            }
+            // compareExp, relationExp, andExp and orExp all have two conds.
+            List<SysYParser.CondContext> sides = cond.getRuleContexts(SysYParser.CondContext.class);
+            if ( sides.size() != 2 ) {
+                return null;
+            }
+            return operands(cond, checkCond(sides.get(0)), checkCond(sides.get(1)));
+        }
+
+        // INT if both operands are, null if either has an error already or is not an int.
+        private Type operands(ParserRuleContext at, Type left, Type right) {
+            if ( left == null || right == null ) {
+                return null;
+            }
+            if ( !left.isInt() || !right.isInt() ) {
+                report(errors, 6, at.getStart(), "Type mismatched for operands.");
+                return null;
+            }
+            return INT;
+        }
+
+        private Type checkLVal(SysYParser.LValContext lVal) {
+            Token name = lVal.IDENT().getSymbol();
+            Type type = resolve(name.getText());
+            if ( type == null ) {
+                report(errors, 1, name, "Undefined variable: " + name.getText());
+                return null;
+            }
+            boolean indexesOk = true;
+            for ( SysYParser.ExpContext index : lVal.exp() ) {
+                Type indexType = checkExp(index);
+                indexesOk &= indexType != null && indexType.isInt();
+            }
+            int indexes = lVal.exp().size();
+            if ( indexes == 0 ) {
+                return type;
+            }
+            if ( type.isFunction() || indexes > type.dims ) {
+                report(errors, 9, name, "Not an array: " + name.getText());
+                return null;
+            }
+            if ( !indexesOk ) {
+                return null;
+            }
+            return (indexes == type.dims)
+                    ? (type.isConst ? CONST_INT : INT)
+                    : new Type(type.dims - indexes, null, null, type.isConst);
+        }
+
+        private Type checkCall(SysYParser.FuncCallExpContext call) {
+            Token name = call.funcName().IDENT().getSymbol();
+            List<Type> args = new ArrayList<>();
+            boolean argsOk = true;
+            if ( call.funcRParams() != null ) {
+                for ( SysYParser.ParamContext param : call.funcRParams().param() ) {
+                    Type arg = checkExp(param.exp());
+                    argsOk &= arg != null;
+                    args.add(arg);
+                }
+            }
+            Type type = resolve(name.getText());
+            if ( type == null ) {
+                report(errors, 2, name, "Undefined function: " + name.getText());
+                return null;
+            }
+            if ( !type.isFunction() ) {
+                report(errors, 10, name, "Not a function: " + name.getText());
+                return null;
+            }
+            if ( !argsOk ) {
+                return null;
+            }
+            boolean applicable = args.size() == type.params.size();
+            for ( int i = 0; applicable && i < args.size(); i++ ) {
+                applicable = type.params.get(i).sameAs(args.get(i));
+            }
+            if ( !applicable ) {
+                report(errors, 8, name, "Function is not applicable for arguments.");
+                return null;
+            }
+            return type.returns;
+        }
+    }
+
+    /*
+     *   int (dims 0), an int array of dims dimensions, void (dims -1), or a
+     *   function when returns is set.
+     */
+    private static final class Type {
+        final int dims;
+        final Type returns;
+        final List<Type> params;
+        // Declared const, or an element of a const array.
+        final boolean isConst;
+
+        Type(int dims, Type returns, List<Type> params) {
+            this(dims, returns, params, false);
+        }
+
+        Type(int dims, Type returns, List<Type> params, boolean isConst) {
+            this.dims = dims;
+            this.returns = returns;
+            this.params = params;
+            this.isConst = isConst;
+        }
+
+        boolean isFunction() {
+            return returns != null;
+        }
+
+        boolean isInt() {
+            return returns == null && dims == 0;
+        }
+
+        boolean sameAs(Type other) {
+            return !isFunction() && !other.isFunction() && dims == other.dims;
+        }
+    }
+}
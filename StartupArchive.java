@@ -0,0 +1,86 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ *   Class-data-sharing archive of the classes a compile loads: the ANTLR
+ *   runtime, the generated lexer and parser, the bytedeco LLVM bindings and
+ *   the compiler itself. Training compiles a corpus in a child JVM that
+ *   dumps the archive when it exits; the sysyc launcher passes it back with
+ *   -XX:SharedArchiveFile.
+ *
+ *   The class path must be made of jars only. The archive only matches the
+ *   JVM and class path it was trained with, otherwise the JVM ignores it
+ *   and starts as usual.
+ */
+public class StartupArchive {
+    /*
+     *   Main --train <directory | manifest> <archive>
+     */
+    public static int train(Path corpus, Path archive) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath = System.getProperty("java.class.path");
+        for ( String entry : classPath.split(File.pathSeparator) ) {
+            String[] children = new File(entry).list();
+            if ( children != null && children.length > 0 ) {
+                System.err.println("Class directories can't be archived, package " + entry + " as a jar");
+                return 2;
+            }
+        }
+        List<String> replay = Arrays.asList("-cp", classPath, "Main", "--train-run", corpus.toString());
+
+        if ( Runtime.version().feature() >= 13 ) {
+            List<String> command = new ArrayList<>(Arrays.asList(java, "-XX:ArchiveClassesAtExit=" + archive));
+            command.addAll(replay);
+            return run(command);
+        }
+
+        // JDK 11 and 12 have no dynamic archive: record the class list, then dump it.
+        Path classList = archive.resolveSibling(archive.getFileName() + ".classlist");
+        List<String> record = new ArrayList<>(Arrays.asList(java, "-XX:DumpLoadedClassList=" + classList));
+        record.addAll(replay);
+        int status = run(record);
+        if ( status != 0 ) {
+            return status;
+        }
+        return run(Arrays.asList(java, "-Xshare:dump",
+                "-XX:SharedClassListFile=" + classList,
+                "-XX:SharedArchiveFile=" + archive,
+                "-cp", classPath));
+    }
+
+    /*
+     *   The training workload: every phase of a normal compile, on every
+     *   source, with nothing written to disk.
+     */
+    public static int replay(List<Path> sources) {
+        MyCompiler.initLLVM();
+        int compiled = 0;
+        for ( Path source : sources ) {
+            MyCompiler compiler = new MyCompiler();
+            try {
+                if ( compiler.parse(MappedCharStream.open(source)) && compiler.genIR() ) {
+                    compiler.getIR();
+                    compiler.genAsm();
+                    compiler.getAsm();
+                    compiled++;
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                System.err.println("Skipped " + source + ": " + e);
+            }
+            finally {
+                compiler.dispose();
+            }
+        }
+        System.err.println("Trained on " + compiled + " of " + sources.size() + " source(s)");
+        return compiled > 0 ? 0 : 1;
+    }
+
+    private static int run(List<String> command) throws IOException, InterruptedException {
+        return new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+}
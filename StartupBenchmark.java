@@ -0,0 +1,83 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ *   Cold-start latency of single-file compiles: every run is a fresh JVM,
+ *   once without and once with the class-data-sharing archive from
+ *   "Main --train". Runs use the class path of this JVM, which must be the
+ *   one the archive was trained with.
+ *
+ *   StartupBenchmark [--runs N] --archive <file.jsa> <source.sy>
+ */
+public class StartupBenchmark {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int runs = 10;
+        String archive = null, source = null;
+        for ( int i = 0; i < args.length; i++ ) {
+            if ( args[i].equals("--runs") ) {
+                runs = Integer.parseInt(args[++i]);
+            }
+            else if ( args[i].equals("--archive") ) {
+                archive = args[++i];
+            }
+            else {
+                source = args[i];
+            }
+        }
+        if ( archive == null || source == null ) {
+            System.err.println("Usage: StartupBenchmark [--runs N] --archive <file.jsa> <source.sy>");
+            System.exit(2);
+        }
+        File asm = File.createTempFile("startup", ".s");
+        asm.deleteOnExit();
+
+        System.out.printf("%-12s %12s %12s %12s%n", "archive", "mean(ms)", "min(ms)", "p50(ms)");
+        report("none", measure(runs, command(null, source, asm.getPath())));
+        report("trained", measure(runs, command(archive, source, asm.getPath())));
+    }
+
+    private static List<String> command(String archive, String source, String output) {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        if ( archive != null ) {
+            // -Xshare:on fails loudly instead of timing a JVM that ignored the archive.
+            command.addAll(Arrays.asList("-XX:SharedArchiveFile=" + archive, "-Xshare:on"));
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+                "Main", "--ir=none", source, output));
+        return command;
+    }
+
+    private static long[] measure(int runs, List<String> command) throws IOException, InterruptedException {
+        // One untimed run to warm the file system cache.
+        run(command);
+        long[] samples = new long[runs];
+        for ( int i = 0; i < runs; i++ ) {
+            long start = System.nanoTime();
+            run(command);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples;
+    }
+
+    private static void run(List<String> command) throws IOException, InterruptedException {
+        int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if ( status != 0 ) {
+            throw new IOException("exit status " + status + " from " + String.join(" ", command));
+        }
+    }
+
+    private static void report(String archive, long[] samples) {
+        long total = 0;
+        for ( long sample : samples ) {
+            total += sample;
+        }
+        System.out.printf("%-12s %12.1f %12.1f %12.1f%n", archive,
+                total / 1e6 / samples.length, samples[0] / 1e6, samples[samples.length / 2] / 1e6);
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+/*
+ *   The names of every open scope in one table. A name's innermost slot is
+ *   kept at its Interner ID, and the slot it hides goes on an undo log.
+ *   Opening a scope marks the log and closing it undoes what was defined
+ *   since, so a lookup is one array read however deeply blocks nest, and
+ *   entering or leaving a block costs nothing per enclosing scope.
+ */
+public class SymbolTable {
+    public static final int NONE = -1;
+
+    private int[] slots = new int[64];
+    private int[] undoNames = new int[64];
+    private int[] undoSlots = new int[64];
+    private int undoSize = 0;
+    private int[] marks = new int[16];
+    private int depth = 0;
+
+    public SymbolTable() {
+        Arrays.fill(slots, NONE);
+    }
+
+    public void enter() {
+        if ( depth == marks.length ) {
+            marks = Arrays.copyOf(marks, depth * 2);
+        }
+        marks[depth++] = undoSize;
+    }
+
+    public void leave() {
+        int mark = marks[--depth];
+        while ( undoSize > mark ) {
+            undoSize--;
+            slots[undoNames[undoSize]] = undoSlots[undoSize];
+        }
+    }
+
+    // Number of open scopes.
+    public int depth() {
+        return depth;
+    }
+
+    public void define(int name, int slot) {
+        if ( name >= slots.length ) {
+            int length = slots.length;
+            slots = Arrays.copyOf(slots, Math.max(name + 1, length * 2));
+            Arrays.fill(slots, length, slots.length, NONE);
+        }
+        if ( undoSize == undoNames.length ) {
+            undoNames = Arrays.copyOf(undoNames, undoSize * 2);
+            undoSlots = Arrays.copyOf(undoSlots, undoSize * 2);
+        }
+        undoNames[undoSize] = name;
+        undoSlots[undoSize] = slots[name];
+        undoSize++;
+        slots[name] = slot;
+    }
+
+    // The innermost slot, or NONE.
+    public int resolve(int name) {
+        return (name >= 0 && name < slots.length) ? slots[name] : NONE;
+    }
+}
@@ -0,0 +1,342 @@
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ *   Hand-written SysYLexer that scans UTF-8 bytes directly, without the ATN
+ *   or a CharStream. It produces the same tokens as SysYLexer.g4, with the
+ *   same types, text, lines, columns and code point indexes, and reports
+ *   unrecognized input with the same messages. LexerDiff checks the two
+ *   against each other.
+ *
+ *   Like the generated lexer it takes the longest match and falls back to
+ *   the last complete token: "0x;" is 0 followed by x, and an unterminated
+ *   comment is lexed as '/' and '*' followed by its contents.
+ */
+public class SysYScanner implements TokenSource {
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+    private int index = 0;
+    private int line = 1;
+    private int column = 0;
+
+    // Searches for a comment's end that already failed from here on.
+    private int noNewlineFrom = Integer.MAX_VALUE;
+    private int noCommentEndFrom = Integer.MAX_VALUE;
+
+    private TokenFactory<?> factory = CommonTokenFactory.DEFAULT;
+    private final Pair<TokenSource, CharStream> source = new Pair<>(this, null);
+    private final List<ANTLRErrorListener> listeners = new ArrayList<>();
+
+    public SysYScanner(byte[] bytes) {
+        this.buf = validUtf8(bytes);
+        this.pos = 0;
+        this.end = buf.length;
+        listeners.add(ConsoleErrorListener.INSTANCE);
+    }
+
+    public SysYScanner(ByteBuffer bytes) {
+        this(toArray(bytes));
+    }
+
+    private static byte[] toArray(ByteBuffer bytes) {
+        if ( bytes.hasArray() && bytes.arrayOffset() == 0 && bytes.position() == 0
+                && bytes.remaining() == bytes.array().length ) {
+            return bytes.array();
+        }
+        byte[] array = new byte[bytes.remaining()];
+        bytes.duplicate().get(array);
+        return array;
+    }
+
+    /*
+     *   The CharStream the generated lexer reads replaces malformed UTF-8
+     *   with U+FFFD, so do the same.
+     */
+    private static byte[] validUtf8(byte[] bytes) {
+        for ( byte b : bytes ) {
+            if ( b < 0 ) {
+                byte[] encoded = new String(bytes, StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8);
+                return Arrays.equals(encoded, bytes) ? bytes : encoded;
+            }
+        }
+        return bytes;
+    }
+
+    public void removeErrorListeners() {
+        listeners.clear();
+    }
+
+    public void addErrorListener(ANTLRErrorListener listener) {
+        listeners.add(listener);
+    }
+
+    /*
+        SCANNING
+     */
+    @Override
+    public Token nextToken() {
+        while ( pos < end ) {
+            int start = pos, startIndex = index, startLine = line, startColumn = column;
+            int c = buf[pos];
+            switch ( c ) {
+                case ' ': case '\t': case '\r': case '\n':
+                    while ( pos < end && isWhitespace(buf[pos]) ) {
+                        consume();
+                    }
+                    continue;
+                case '/':
+                    if ( peek(1) == '/' && skipLineComment() ) {
+                        continue;
+                    }
+                    if ( peek(1) == '*' && skipBlockComment() ) {
+                        continue;
+                    }
+                    return operator(SysYLexer.DIV, 1);
+                case '+': return operator(SysYLexer.PLUS, 1);
+                case '-': return operator(SysYLexer.MINUS, 1);
+                case '*': return operator(SysYLexer.MUL, 1);
+                case '%': return operator(SysYLexer.MOD, 1);
+                case '(': return operator(SysYLexer.L_PAREN, 1);
+                case ')': return operator(SysYLexer.R_PAREN, 1);
+                case '{': return operator(SysYLexer.L_BRACE, 1);
+                case '}': return operator(SysYLexer.R_BRACE, 1);
+                case '[': return operator(SysYLexer.L_BRACKT, 1);
+                case ']': return operator(SysYLexer.R_BRACKT, 1);
+                case ',': return operator(SysYLexer.COMMA, 1);
+                case ';': return operator(SysYLexer.SEMICOLON, 1);
+                case '=': return peek(1) == '=' ? operator(SysYLexer.EQ, 2) : operator(SysYLexer.ASSIGN, 1);
+                case '!': return peek(1) == '=' ? operator(SysYLexer.NEQ, 2) : operator(SysYLexer.NOT, 1);
+                case '<': return peek(1) == '=' ? operator(SysYLexer.LE, 2) : operator(SysYLexer.LT, 1);
+                case '>': return peek(1) == '=' ? operator(SysYLexer.GE, 2) : operator(SysYLexer.GT, 1);
+                case '&':
+                    if ( peek(1) == '&' ) {
+                        return operator(SysYLexer.AND, 2);
+                    }
+                    // A lone '&' is a dead end together with whatever follows it.
+                    consume();
+                    recognitionError(start, startLine, startColumn);
+                    continue;
+                case '|':
+                    if ( peek(1) == '|' ) {
+                        return operator(SysYLexer.OR, 2);
+                    }
+                    consume();
+                    recognitionError(start, startLine, startColumn);
+                    continue;
+                default:
+                    break;
+            }
+            if ( isLetter(c) || c == '_' ) {
+                while ( pos < end && (isLetter(buf[pos]) || isDigit(buf[pos]) || buf[pos] == '_') ) {
+                    advance();
+                }
+                String text = ascii(start);
+                return token(keyword(text), text, startIndex, startLine, startColumn);
+            }
+            if ( isDigit(c) ) {
+                advance();
+                if ( c == '0' && (peek(0) == 'x' || peek(0) == 'X') && isHexDigit(peek(1)) ) {
+                    advance();
+                    while ( pos < end && isHexDigit(buf[pos]) ) {
+                        advance();
+                    }
+                }
+                else if ( c == '0' ) {
+                    while ( pos < end && buf[pos] >= '0' && buf[pos] <= '7' ) {
+                        advance();
+                    }
+                }
+                else {
+                    while ( pos < end && isDigit(buf[pos]) ) {
+                        advance();
+                    }
+                }
+                return token(SysYLexer.INTEGR_CONST, ascii(start), startIndex, startLine, startColumn);
+            }
+            recognitionError(start, startLine, startColumn);
+        }
+        return factory.create(source, Token.EOF, "<EOF>", Token.DEFAULT_CHANNEL, index, index - 1, line, column);
+    }
+
+    private boolean skipLineComment() {
+        int newline = pos + 2 < noNewlineFrom ? find(pos + 2, (byte) '\n') : -1;
+        if ( newline < 0 ) {
+            noNewlineFrom = Math.min(noNewlineFrom, pos + 2);
+            return false;
+        }
+        skipTo(newline + 1);
+        return true;
+    }
+
+    private boolean skipBlockComment() {
+        int close = -1;
+        if ( pos + 2 < noCommentEndFrom ) {
+            for ( int i = pos + 2; i + 1 < end; i++ ) {
+                if ( buf[i] == '*' && buf[i + 1] == '/' ) {
+                    close = i;
+                    break;
+                }
+            }
+        }
+        if ( close < 0 ) {
+            noCommentEndFrom = Math.min(noCommentEndFrom, pos + 2);
+            return false;
+        }
+        skipTo(close + 2);
+        return true;
+    }
+
+    private int find(int from, byte b) {
+        for ( int i = from; i < end; i++ ) {
+            if ( buf[i] == b ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     *   Reports the input from start up to and including the next character,
+     *   then skips that character too, as Lexer.recover does.
+     */
+    private void recognitionError(int start, int startLine, int startColumn) {
+        if ( pos < end ) {
+            consume();
+        }
+        String text = new String(buf, start, pos - start, StandardCharsets.UTF_8);
+        StringBuilder display = new StringBuilder();
+        for ( char c : text.toCharArray() ) {
+            switch ( c ) {
+                case '\n': display.append("\\n"); break;
+                case '\t': display.append("\\t"); break;
+                case '\r': display.append("\\r"); break;
+                default: display.append(c); break;
+            }
+        }
+        String message = "token recognition error at: '" + display + "'";
+        for ( ANTLRErrorListener listener : listeners ) {
+            listener.syntaxError(null, null, startLine, startColumn, message, null);
+        }
+    }
+
+    /*
+        CHARACTERS
+     */
+    private int peek(int offset) {
+        return pos + offset < end ? buf[pos + offset] : -1;
+    }
+
+    // One ASCII character that is not a newline.
+    private void advance() {
+        pos++;
+        index++;
+        column++;
+    }
+
+    // One code point of any kind.
+    private void consume() {
+        int c = buf[pos] & 0xff;
+        if ( c == '\n' ) {
+            line++;
+            column = 0;
+        }
+        else {
+            column++;
+        }
+        index++;
+        pos += c < 0x80 ? 1 : c < 0xE0 ? 2 : c < 0xF0 ? 3 : 4;
+    }
+
+    private void skipTo(int target) {
+        while ( pos < target ) {
+            consume();
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(int c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static int keyword(String text) {
+        switch ( text ) {
+            case "const": return SysYLexer.CONST;
+            case "int": return SysYLexer.INT;
+            case "void": return SysYLexer.VOID;
+            case "if": return SysYLexer.IF;
+            case "else": return SysYLexer.ELSE;
+            case "while": return SysYLexer.WHILE;
+            case "break": return SysYLexer.BREAK;
+            case "continue": return SysYLexer.CONTINUE;
+            case "return": return SysYLexer.RETURN;
+            default: return SysYLexer.IDENT;
+        }
+    }
+
+    private String ascii(int start) {
+        return new String(buf, start, pos - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /*
+        TOKENS
+     */
+    private Token operator(int type, int length) {
+        int start = pos, startIndex = index, startColumn = column;
+        pos += length;
+        index += length;
+        column += length;
+        return token(type, ascii(start), startIndex, line, startColumn);
+    }
+
+    private Token token(int type, String text, int startIndex, int startLine, int startColumn) {
+        return factory.create(source, type, text, Token.DEFAULT_CHANNEL, startIndex, index - 1, startLine, startColumn);
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return column;
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return null;
+    }
+
+    @Override
+    public String getSourceName() {
+        return IntStream.UNKNOWN_SOURCE_NAME;
+    }
+
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return factory;
+    }
+}
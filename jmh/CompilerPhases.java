@@ -0,0 +1,105 @@
+import org.antlr.v4.runtime.*;
+
+import benchmarks.Phases;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/*
+ *   Phases over one BenchmarkCorpus program. The input of every phase is
+ *   built here once, by running the phases before it, so a benchmark only
+ *   measures its own.
+ */
+public class CompilerPhases implements Phases {
+    private final String source;
+    private final List<Token> tokens;
+    private final SysYParser.ProgramContext tree;
+    private final Ast.Program program;
+    private final MyLLVMVisitor visitor;
+    private final List<List<List<BenchmarkCorpus.Appearance>>> lifespans;
+    private final AsmBuilder built;
+    private final File asmFile;
+
+    public CompilerPhases(String corpus) throws IOException {
+        MyCompiler.initLLVM();
+        source = BenchmarkCorpus.named(corpus);
+        tokens = lex(source);
+        tree = parse(tokens, false);
+        program = new AstBuilder().program(tree);
+        visitor = new MyLLVMVisitor();
+        visitor.visitProgram(program);
+        lifespans = BenchmarkCorpus.collectLifespans(visitor.getModule());
+        built = new AsmBuilder(visitor.getModule());
+        built.build();
+        asmFile = File.createTempFile("bench", ".s");
+    }
+
+    private static List<Token> lex(String source) {
+        CommonTokenStream stream = new CommonTokenStream(new SysYLexer(CharStreams.fromString(source)));
+        stream.fill();
+        return stream.getTokens();
+    }
+
+    private static SysYParser.ProgramContext parse(List<Token> tokens, boolean climb) {
+        SysYParser parser = new SysYParser(new CommonTokenStream(new ListTokenSource(tokens)));
+        if ( climb ) {
+            PrecedenceClimber.install(parser);
+        }
+        parser.removeErrorListeners();
+        return parser.program();
+    }
+
+    @Override
+    public Object lex() {
+        return lex(source);
+    }
+
+    @Override
+    public Object parse() {
+        return parse(tokens, false);
+    }
+
+    @Override
+    public Object parseClimbing() {
+        return parse(tokens, true);
+    }
+
+    @Override
+    public Object astBuild() {
+        return new AstBuilder().program(tree);
+    }
+
+    // The module goes with its visitor, only the reference escapes.
+    @Override
+    public Object visit() {
+        MyLLVMVisitor v = new MyLLVMVisitor();
+        v.visitProgram(program);
+        Object module = v.getModule();
+        v.dispose();
+        return module;
+    }
+
+    @Override
+    public Object allocVars() {
+        return BenchmarkCorpus.allocVars(lifespans);
+    }
+
+    @Override
+    public Object asmBuild() {
+        AsmBuilder builder = new AsmBuilder(visitor.getModule());
+        builder.build();
+        return builder;
+    }
+
+    @Override
+    public void asmOutput() {
+        built.outputBuffer(asmFile.getPath());
+    }
+
+    @Override
+    public void dispose() {
+        visitor.dispose();
+        asmFile.delete();
+    }
+}
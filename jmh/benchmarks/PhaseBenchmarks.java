@@ -0,0 +1,77 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ *   Every compiler phase on its own, on each BenchmarkCorpus program: the
+ *   phases of the request are SysYLexer, SysYParser.program(),
+ *   MyLLVMVisitor.visitProgram, AsmHelper.allocVars and AsmBuilder.build
+ *   and outputBuffer, plus the precedence climber and AstBuilder.
+ *
+ *   gradle jmh, or for a quick look at some of them:
+ *   gradle jmh -Pbenchmarks=lex,parse -Pcorpus=huge -Pquick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PhaseBenchmarks {
+    @Param({ "small", "medium", "huge", "expressions" })
+    public String corpus;
+
+    private Phases phases;
+
+    @Setup(Level.Trial)
+    public void prepare() throws ReflectiveOperationException {
+        phases = (Phases) Class.forName("CompilerPhases").getConstructor(String.class).newInstance(corpus);
+    }
+
+    @TearDown(Level.Trial)
+    public void dispose() {
+        phases.dispose();
+    }
+
+    @Benchmark
+    public Object lex() {
+        return phases.lex();
+    }
+
+    @Benchmark
+    public Object parse() {
+        return phases.parse();
+    }
+
+    @Benchmark
+    public Object parseClimbing() {
+        return phases.parseClimbing();
+    }
+
+    @Benchmark
+    public Object astBuild() {
+        return phases.astBuild();
+    }
+
+    @Benchmark
+    public Object visit() {
+        return phases.visit();
+    }
+
+    @Benchmark
+    public Object allocVars() {
+        return phases.allocVars();
+    }
+
+    @Benchmark
+    public Object asmBuild() {
+        return phases.asmBuild();
+    }
+
+    @Benchmark
+    public void asmOutput() {
+        phases.asmOutput();
+    }
+}
@@ -0,0 +1,29 @@
+package benchmarks;
+
+/*
+ *   The compiler phases of one prepared program. JMH wants benchmarks in a
+ *   package, and a package cannot name the compiler's classes in the
+ *   default package, so they are reached through this interface, which
+ *   CompilerPhases implements from the default package.
+ *
+ *   Each phase returns what it built, for the benchmark to hand to JMH.
+ */
+public interface Phases {
+    Object lex();
+
+    Object parse();
+
+    Object parseClimbing();
+
+    Object astBuild();
+
+    Object visit();
+
+    Object allocVars();
+
+    Object asmBuild();
+
+    void asmOutput();
+
+    void dispose();
+}